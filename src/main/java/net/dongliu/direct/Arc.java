@@ -0,0 +1,212 @@
+package net.dongliu.direct;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive replacement cache. Values read once are in the recent lru, values read again are moved to the frequent
+ * lru. Hashes of values removed from each list are remembered in ghost lists, a new value whose hash is in a ghost
+ * list goes to the frequent lru directly, and adapts the target size of recent lru: a ghost hit of recent grows it,
+ * a ghost hit of frequent shrinks it. Victims are taken from recent lru while it exceeds the target.
+ * <p>
+ * The cache is bounded by memory, not count, so the capacity of ARC is the number of values currently in policy.
+ * A replaced value is a hit and leaves no ghost. The policy can not tell eviction from other removes, every other
+ * removed value leaves a ghost.
+ * </p>
+ *
+ * @author Dong Liu
+ */
+class Arc implements Policy {
+
+    private static final byte RECENT = 1;
+    private static final byte FREQUENT = 2;
+
+    private final ValueList recent = new ValueList(RECENT);
+    private final ValueList frequent = new ValueList(FREQUENT);
+
+    /**
+     * hashes of values removed from recent and frequent lru, oldest first
+     */
+    private final GhostList recentGhosts = new GhostList();
+    private final GhostList frequentGhosts = new GhostList();
+
+    /**
+     * the target size of recent lru
+     */
+    private int target;
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Ticker ticker;
+
+    Arc(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    @Override
+    public void insert(DirectValue value) {
+        value.setRank((int) ticker.read());
+        int hash = value.hash();
+        lock.lock();
+        try {
+            if (recentGhosts.contains(hash)) {
+                int delta = Math.max(frequentGhosts.size() / recentGhosts.size(), 1);
+                target = Math.min(target + delta, capacity() + 1);
+                recentGhosts.remove(hash);
+                frequent.addFirst(value);
+            } else if (frequentGhosts.contains(hash)) {
+                int delta = Math.max(recentGhosts.size() / frequentGhosts.size(), 1);
+                target = Math.max(target - delta, 0);
+                frequentGhosts.remove(hash);
+                frequent.addFirst(value);
+            } else {
+                recent.addFirst(value);
+            }
+            trimGhosts();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(DirectValue value) {
+        lock.lock();
+        try {
+            if (recent.contains(value)) {
+                recent.remove(value);
+                recentGhosts.add(value.hash());
+            } else if (frequent.contains(value)) {
+                frequent.remove(value);
+                frequentGhosts.add(value.hash());
+            } else {
+                return;
+            }
+            trimGhosts();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the new value is a hit, goes to head of frequent lru
+     */
+    @Override
+    public void replace(DirectValue oldValue, DirectValue value) {
+        value.setRank((int) ticker.read());
+        lock.lock();
+        try {
+            if (recent.contains(oldValue)) {
+                recent.remove(oldValue);
+            } else if (frequent.contains(oldValue)) {
+                frequent.remove(oldValue);
+            }
+            frequent.addFirst(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * move value to head of frequent lru. reads are lossy: skipped if the lock is held by other thread,
+     * so readers never wait.
+     */
+    @Override
+    public void access(DirectValue value) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (recent.contains(value)) {
+                recent.remove(value);
+                frequent.addFirst(value);
+            } else if (frequent.contains(value)) {
+                frequent.moveToFirst(value);
+            } else {
+                return;
+            }
+            value.setRank((int) ticker.read());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the number of values in policy. call only while holding lock.
+     */
+    private int capacity() {
+        return recent.size() + frequent.size();
+    }
+
+    /**
+     * keep recent lru with its ghosts within capacity, and all ghosts within capacity. call only while holding lock.
+     */
+    private void trimGhosts() {
+        int capacity = capacity();
+        while (!recentGhosts.isEmpty() && recent.size() + recentGhosts.size() > capacity) {
+            recentGhosts.removeOldest();
+        }
+        while (recentGhosts.size() + frequentGhosts.size() > capacity) {
+            (frequentGhosts.isEmpty() ? recentGhosts : frequentGhosts).removeOldest();
+        }
+    }
+
+    /**
+     * the list to evict from first. call only while holding lock.
+     */
+    private ValueList first() {
+        return recent.size() > 0 && (recent.size() > target || frequent.size() == 0) ? recent : frequent;
+    }
+
+    @Override
+    public DirectValue evictNext(DirectValue value) {
+        lock.lock();
+        try {
+            return next(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the eviction order: the first list from tail, then the other. call only while holding lock.
+     */
+    private DirectValue next(DirectValue value) {
+        ValueList first = first();
+        ValueList second = first == recent ? frequent : recent;
+        if (value == null) {
+            return first.tail();
+        }
+        ValueList list;
+        if (recent.contains(value)) {
+            list = recent;
+        } else if (frequent.contains(value)) {
+            list = frequent;
+        } else {
+            return null;
+        }
+        if (value.precursor == null && list == first) {
+            return second.tail();
+        }
+        return value.precursor;
+    }
+
+    @Override
+    public List<DirectValue> tails(long bytes, int num) {
+        List<DirectValue> list = new ArrayList<>(Math.min(num, 16));
+        long got = 0;
+        lock.lock();
+        try {
+            DirectValue value = next(null);
+            while (value != null && got < bytes && list.size() < num) {
+                list.add(value);
+                got += value.capacity();
+                value = next(value);
+            }
+            return list;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package net.dongliu.direct;
+
+/**
+ * Loads values of keys, to refresh entries in background. Set by
+ * {@link DirectCacheBuilder#refreshAfterWrite(long, java.util.concurrent.TimeUnit, CacheLoader)}.
+ * <p>
+ * A read of entry written longer than the refresh duration ago still returns the current value at once, and starts
+ * a reload of the key if none is running. The loaded value replaces the entry, unless it has been changed or
+ * removed since. An entry is only refreshed when read, entries not read expire as usual.
+ * </p>
+ *
+ * @author Dong Liu
+ */
+public interface CacheLoader {
+
+    /**
+     * load the value of key, called by the refresh executor.
+     *
+     * @param key the key, a Long for {@link LongDirectCache}
+     * @return the new value, null to keep the current value
+     * @throws Exception the failure is logged, and the current value kept
+     */
+    Object load(Object key) throws Exception;
+}
@@ -0,0 +1,121 @@
+package net.dongliu.direct;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CLOCK, or second chance policy. A read only sets the reference bit of value, without lock.
+ * Values are kept in insertion order, the hand sweeps from the oldest: a referenced value has its bit
+ * cleared and is moved to the head, the first unreferenced value is the victim.
+ *
+ * @author Dong Liu
+ */
+class Clock implements Policy {
+
+    private static final byte CLOCK = 1;
+
+    private final ValueList list = new ValueList(CLOCK);
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Ticker ticker;
+
+    Clock(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    @Override
+    public void insert(DirectValue value) {
+        value.setRank((int) ticker.read());
+        value.referenced = false;
+        lock.lock();
+        try {
+            list.addFirst(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(DirectValue value) {
+        lock.lock();
+        try {
+            if (list.contains(value)) {
+                list.remove(value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void replace(DirectValue oldValue, DirectValue value) {
+        remove(oldValue);
+        insert(value);
+    }
+
+    @Override
+    public void access(DirectValue value) {
+        // avoid dirty the cache line if already set
+        if (!value.referenced) {
+            value.referenced = true;
+        }
+    }
+
+    @Override
+    public DirectValue evictNext(DirectValue value) {
+        lock.lock();
+        try {
+            return sweep(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * move the hand from after value, give referenced values a second chance, return the first unreferenced one.
+     * call only while holding lock.
+     *
+     * @param value the value last chosen, null to start from the oldest
+     */
+    private DirectValue sweep(DirectValue value) {
+        DirectValue hand;
+        if (value == null) {
+            hand = list.tail();
+        } else if (list.contains(value)) {
+            hand = value.precursor;
+        } else {
+            return null;
+        }
+        // readers may keep setting bits, sweep at most one round
+        for (int i = list.size(); hand != null && hand.referenced && i > 0; i--) {
+            DirectValue next = hand.precursor;
+            hand.referenced = false;
+            hand.setRank((int) ticker.read());
+            list.moveToFirst(hand);
+            // the first sweep wraps around, all values may have been referenced
+            hand = next == null && value == null ? list.tail() : next;
+        }
+        return hand;
+    }
+
+    @Override
+    public List<DirectValue> tails(long bytes, int num) {
+        List<DirectValue> values = new ArrayList<>(Math.min(num, 16));
+        long got = 0;
+        lock.lock();
+        try {
+            DirectValue value = sweep(null);
+            while (value != null && got < bytes && values.size() < num) {
+                values.add(value);
+                got += value.capacity();
+                value = sweep(value);
+            }
+            return values;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package net.dongliu.direct;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ticker caching System.currentTimeMillis, updated by a daemon thread every resolution. The thread runs while
+ * caches use the ticker: started when the first cache is built with it, stopped when the last one destroyed.
+ * Reads while no cache uses it fall back to System.currentTimeMillis.
+ *
+ * @author Dong Liu
+ */
+class CoarseTicker extends Ticker implements Runnable {
+
+    private final long resolutionNanos;
+
+    /**
+     * the cached time, -1 if the updating thread is not running
+     */
+    private volatile long time = -1;
+
+    /**
+     * the number of caches using this ticker, guarded by this
+     */
+    private int users;
+    private Thread thread;
+
+    CoarseTicker(long resolutionNanos) {
+        if (resolutionNanos <= 0) {
+            throw new IllegalArgumentException("resolution should be positive");
+        }
+        this.resolutionNanos = resolutionNanos;
+    }
+
+    @Override
+    public long read() {
+        long time = this.time;
+        return time >= 0 ? time : System.currentTimeMillis();
+    }
+
+    @Override
+    synchronized void retain() {
+        if (users++ == 0) {
+            time = System.currentTimeMillis();
+            thread = new Thread(this, "direct-cache-ticker");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    synchronized void release() {
+        if (--users == 0) {
+            time = -1;
+            Thread stopped = thread;
+            thread = null;
+            LockSupport.unpark(stopped);
+        }
+    }
+
+    /**
+     * update the time, if current is still the updating thread
+     *
+     * @return false if current thread should stop
+     */
+    private synchronized boolean tick(Thread current) {
+        if (thread != current) {
+            return false;
+        }
+        time = System.currentTimeMillis();
+        return true;
+    }
+
+    @Override
+    public void run() {
+        Thread current = Thread.currentThread();
+        do {
+            LockSupport.parkNanos(this, resolutionNanos);
+        } while (tick(current));
+    }
+}
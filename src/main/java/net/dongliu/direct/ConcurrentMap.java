@@ -15,7 +15,10 @@
  */
 package net.dongliu.direct;
 
+import net.dongliu.direct.utils.UNSAFE;
+
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -23,7 +26,15 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * ito allow efficient random sampling of the map values.
  * <p>
  * The random sampling technique involves randomly selecting a map Segment, and then
- * selecting a number of random entry chains from that segment.
+ * probing the table of that segment from a random slot, see {@link #sampledCandidates(long, int)}.
+ * </p>
+ * <p>
+ * Segments are open-addressing tables with linear probing, so there is no node object per entry.
+ * Reads do not lock: writers hold the segment write lock, fill the hash of a slot before publish
+ * the value with an ordered write, and replace the whole table by a volatile write when rehash.
+ * A reader racing with a writer may miss the entry being changed, but never see a half-installed one.
+ * Rehash is incremental: each write moves a few slots to the new table, readers look in both tables
+ * until the old one is drained, so no write pays for the whole table.
  * </p>
  *
  * @author Chris Dennis
@@ -52,6 +63,17 @@ class ConcurrentMap {
      */
     private static final int RETRIES_BEFORE_LOCK = 2;
 
+    /**
+     * Number of old table slots moved to new table by each write while rehashing. The new table is
+     * at least as large as the old one, so migration always finishes before the new table is full.
+     */
+    private static final int MIGRATE_STEP = 64;
+
+    /**
+     * Number of slots scanned by a sweep step, the unit the sweep budget is checked by.
+     */
+    private static final int SWEEP_STEP = 64;
+
     /**
      * Mask value for indexing into segments. The upper bits of a
      * key's hash code are used to choose the segment.
@@ -68,11 +90,65 @@ class ConcurrentMap {
      */
     private final Segment[] segments;
 
+    /**
+     * Marker for slot whose entry has been removed
+     */
+    private static final DirectValue REMOVED = new DirectValue(null);
+
+    /**
+     * if keys are primitive longs, stored in tables directly
+     */
+    private final boolean longKey;
+
+    private final Eviction eviction;
+
+    /**
+     * the cache settings, policies are created by
+     */
+    private final DirectCacheBuilder settings;
+
+    /**
+     * receives removed entries, null if no one listens
+     */
+    private final RemovalNotifier notifier;
+
+    /**
+     * the policy shared by all segments, null if each segment has its own policy of eviction
+     */
+    private final Policy sharedPolicy;
+
+    /**
+     * the number of values sampled to choose one victim, in sampled eviction
+     */
+    private static final int SAMPLE_SIZE = 5;
+
+    /**
+     * the max slots probed from a random one to sample a value
+     */
+    private static final int SAMPLE_PROBES = 16;
+
     private Set<Object> keySet;
     private Set<Map.Entry<Object, DirectValue>> entrySet;
     private Collection<DirectValue> values;
 
     public ConcurrentMap(int initialCapacity, float loadFactor, int concurrency) {
+        this(initialCapacity, loadFactor, concurrency, false, DirectCache.newBuilder(), null);
+    }
+
+    /**
+     * @param longKey  if the map use primitive long keys. Object key arguments are then ignored and passed
+     *                 as null, the long key arguments are used instead.
+     * @param settings the cache settings, for the eviction policy of segments. A custom
+     *                 {@link EvictionPolicy} is shared by all segments, and chooses victims for the whole map.
+     * @param notifier receives removed and replaced entries under segment lock, null if no one listens
+     */
+    ConcurrentMap(int initialCapacity, float loadFactor, int concurrency, boolean longKey,
+                  DirectCacheBuilder settings, RemovalNotifier notifier) {
+        this.longKey = longKey;
+        this.notifier = notifier;
+        this.settings = settings;
+        this.eviction = settings.eviction;
+        this.sharedPolicy = settings.evictionPolicy == null ? null : new CustomPolicy(settings.evictionPolicy);
         if (!(loadFactor > 0) || initialCapacity < 0 || concurrency <= 0)
             throw new IllegalArgumentException();
 
@@ -210,8 +286,15 @@ class ConcurrentMap {
     }
 
     public ReentrantReadWriteLock lockFor(Object key) {
-        int hash = hash(key.hashCode());
-        return segmentFor(hash);
+        return lockFor(key, 0);
+    }
+
+    /**
+     * @param key     the key, null if this map use long keys
+     * @param longKey the key if this map use long keys
+     */
+    ReentrantReadWriteLock lockFor(Object key, long longKey) {
+        return segmentFor(hash(key, longKey));
     }
 
     public ReentrantReadWriteLock[] locks() {
@@ -219,31 +302,77 @@ class ConcurrentMap {
     }
 
     public DirectValue get(Object key) {
-        int hash = hash(key.hashCode());
-        return segmentFor(hash).get(key, hash);
+        return get(key, 0);
+    }
+
+    DirectValue get(Object key, long longKey) {
+        int hash = hash(key, longKey);
+        return segmentFor(hash).get(key, longKey, hash);
     }
 
     public boolean containsKey(Object key) {
-        int hash = hash(key.hashCode());
-        return segmentFor(hash).containsKey(key, hash);
+        return containsKey(key, 0);
+    }
+
+    boolean containsKey(Object key, long longKey) {
+        int hash = hash(key, longKey);
+        return segmentFor(hash).containsKey(key, longKey, hash);
     }
 
     public DirectValue put(Object key, DirectValue value) {
-        int hash = hash(key.hashCode());
-        return segmentFor(hash).put(key, hash, value, false);
+        return put(key, 0, value);
+    }
+
+    DirectValue put(Object key, long longKey, DirectValue value) {
+        int hash = hash(key, longKey);
+        return segmentFor(hash).put(key, longKey, hash, value, false);
     }
 
     /**
      * if not absent, return the direct value in cache
      */
     public DirectValue putIfAbsent(Object key, DirectValue value) {
-        int hash = hash(key.hashCode());
-        return segmentFor(hash).put(key, hash, value, true);
+        return putIfAbsent(key, 0, value);
+    }
+
+    DirectValue putIfAbsent(Object key, long longKey, DirectValue value) {
+        int hash = hash(key, longKey);
+        return segmentFor(hash).put(key, longKey, hash, value, true);
     }
 
     public DirectValue remove(Object key) {
-        int hash = hash(key.hashCode());
-        return segmentFor(hash).remove(key, hash);
+        return remove(key, 0);
+    }
+
+    DirectValue remove(Object key, long longKey) {
+        int hash = hash(key, longKey);
+        return segmentFor(hash).remove(key, longKey, hash);
+    }
+
+    /**
+     * remove the value if it is still in map
+     *
+     * @return true if removed
+     */
+    public boolean remove(DirectValue value) {
+        return remove(value, RemovalCause.EXPLICIT);
+    }
+
+    /**
+     * remove the value if it is still in map
+     *
+     * @param cause why the value is removed, for removal listener
+     * @return true if removed
+     */
+    boolean remove(DirectValue value, RemovalCause cause) {
+        return segmentFor(value.hash()).remove(value, cause);
+    }
+
+    /**
+     * if this map use primitive long keys
+     */
+    boolean isLongKey() {
+        return longKey;
     }
 
     public void clear() {
@@ -256,16 +385,169 @@ class ConcurrentMap {
     }
 
     protected Segment createSegment(int initialCapacity, float lf) {
-        return new Segment(initialCapacity, lf);
+        return new Segment(initialCapacity, lf, longKey);
     }
 
     /**
-     * get evict candidate entries
+     * get at most size evict candidate entries, from the segment of keyHint
      */
     public List<DirectValue> evictCandidates(Object keyHint, int size) {
-        int hash = hash(keyHint.hashCode());
-        Segment segment = segmentFor(hash);
-        return segment.lru.tails(size);
+        return evictCandidates(keyHint, 0, Long.MAX_VALUE, size);
+    }
+
+    /**
+     * get evict candidate entries from the segment of keyHint, until their capacity reaches bytes,
+     * at most size entries.
+     */
+    List<DirectValue> evictCandidates(Object keyHint, long longKeyHint, long bytes, int size) {
+        Segment segment = segmentFor(hash(keyHint, longKeyHint));
+        if (sharedPolicy != null) {
+            return sharedPolicy.tails(bytes, size);
+        }
+        if (eviction.sampled()) {
+            return sampledCandidates(new Segment[]{segment}, bytes, size);
+        }
+        return segment.policy.tails(bytes, size);
+    }
+
+    /**
+     * Choose the coldest values across all segments, until the capacity of chosen values reaches bytes,
+     * or size values are chosen. The eviction orders of segments are merged by rank of values.
+     * The values may be removed concurrently, the result is only a hint.
+     */
+    List<DirectValue> coldestCandidates(long bytes, int size) {
+        if (sharedPolicy != null) {
+            return sharedPolicy.tails(bytes, size);
+        }
+        if (eviction.sampled()) {
+            return sampledCandidates(bytes, size);
+        }
+        PriorityQueue<DirectValue> queue = new PriorityQueue<>(segments.length, Policy.COLDEST_FIRST);
+        for (Segment segment : segments) {
+            DirectValue tail = segment.policy.evictNext(null);
+            if (tail != null) {
+                queue.add(tail);
+            }
+        }
+        List<DirectValue> list = new ArrayList<>();
+        // a value promoted while walking may be met again, the walk from it is done, stop there to never loop
+        Set<DirectValue> chosen = new HashSet<>();
+        long chosenBytes = 0;
+        while (chosenBytes < bytes && list.size() < size && !queue.isEmpty()) {
+            DirectValue value = queue.poll();
+            if (!chosen.add(value)) {
+                continue;
+            }
+            list.add(value);
+            chosenBytes += value.capacity();
+            DirectValue next = segmentFor(value.hash()).policy.evictNext(value);
+            if (next != null) {
+                queue.add(next);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Choose values by sampling, until the capacity of chosen values reaches bytes, or size values are chosen.
+     * Each victim is the lowest ranked of SAMPLE_SIZE values, sampled from random segments. Nothing is locked,
+     * the values may be removed concurrently, the result is only a hint.
+     */
+    List<DirectValue> sampledCandidates(long bytes, int size) {
+        return sampledCandidates(segments, bytes, size);
+    }
+
+    private List<DirectValue> sampledCandidates(Segment[] from, long bytes, int size) {
+        Random random = ThreadLocalRandom.current();
+        List<DirectValue> list = new ArrayList<>();
+        Set<DirectValue> chosen = new HashSet<>();
+        long chosenBytes = 0;
+        // bound the tries, the map may be emptied concurrently
+        for (int tries = 0; chosenBytes < bytes && list.size() < size && tries < size * 4; tries++) {
+            DirectValue victim = null;
+            for (int i = 0; i < SAMPLE_SIZE; i++) {
+                DirectValue value = from[random.nextInt(from.length)].sample(random);
+                if (value == null || chosen.contains(value)) {
+                    continue;
+                }
+                if (victim == null || Policy.COLDEST_FIRST.compare(value, victim) < 0) {
+                    if (victim != null) {
+                        survived(victim);
+                    }
+                    victim = value;
+                } else {
+                    survived(value);
+                }
+            }
+            if (victim != null) {
+                chosen.add(victim);
+                list.add(victim);
+                chosenBytes += victim.capacity();
+            }
+        }
+        return list;
+    }
+
+    private void survived(DirectValue value) {
+        ((Sampled) segmentFor(value.hash()).policy).survived(value);
+    }
+
+    /**
+     * track value in timer wheel again after its expire time is set earlier, or from unlimited, by a read.
+     * do nothing if map does not expire proactively, or value is removed
+     */
+    void reschedule(DirectValue value) {
+        segmentFor(value.hash()).reschedule(value);
+    }
+
+    /**
+     * remove values expired at now from all segments, if map expire proactively
+     *
+     * @return the number of values removed
+     */
+    int expire(long now) {
+        int removed = 0;
+        for (Segment segment : segments) {
+            removed += segment.expire(now);
+        }
+        return removed;
+    }
+
+    /**
+     * the segment and slot the next sweep continues from. only accessed by the sweeping thread
+     */
+    private int sweepSegment;
+    private int sweepSlot;
+
+    /**
+     * scan slots of segments from where last sweep stopped, remove values expired at now, until the time budget
+     * used up, or all segments scanned once. Segments are scanned without lock, and locked once per step to remove
+     * what found. Call from one thread only.
+     *
+     * @param budgetNanos the time budget, at least one step is done
+     * @return the number of values removed
+     */
+    int sweep(long now, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        List<DirectValue> expired = new ArrayList<>();
+        int removed = 0;
+        // stop after one pass, which ends at the slot it started from
+        int pass = sweepSlot == 0 ? segments.length : segments.length + 1;
+        int finished = 0;
+        do {
+            Segment segment = segments[sweepSegment];
+            sweepSlot = segment.sweep(sweepSlot, now, expired);
+            if (!expired.isEmpty()) {
+                removed += segment.removeExpired(expired, now);
+                expired.clear();
+            }
+            if (sweepSlot < 0) {
+                sweepSlot = 0;
+                sweepSegment = (sweepSegment + 1) % segments.length;
+                finished++;
+            }
+        } while (finished < pass && System.nanoTime() - deadline < 0);
+        return removed;
     }
 
     /**
@@ -300,16 +582,33 @@ class ConcurrentMap {
         int modCount;
 
         /**
-         * The table is rehashed when its size exceeds this threshold.
-         * (The value of this field is always <tt>(int)(size *
-         * loadFactor)</tt>.)
+         * The number of slots not empty in table, include slots of removed entries.
+         */
+        int used;
+
+        /**
+         * The table is rehashed when used slots exceeds this threshold.
+         * (The value of this field is always <tt>(int)(capacity *
+         * loadFactor)</tt>, and less than capacity.)
          */
         int threshold;
 
         /**
          * The per-segment table.
          */
-        protected volatile HashEntry[] table;
+        protected volatile Table table;
+
+        /**
+         * The table being migrated to {@link #table} while rehashing, null if not rehashing.
+         * An entry is in one of the two tables: entries before {@link #migrated} have been moved out,
+         * leaving removed slots behind; others are still here.
+         */
+        protected volatile Table oldTable;
+
+        /**
+         * The index of the next slot of oldTable to migrate.
+         */
+        int migrated;
 
         /**
          * The load factor for the hash table.  Even though this value
@@ -320,15 +619,28 @@ class ConcurrentMap {
          */
         final float loadFactor;
 
-        private final Lru lru = new Lru();
+        /**
+         * if tables hold primitive long keys
+         */
+        final boolean longKey;
+
+        private final Policy policy = sharedPolicy != null ? sharedPolicy : eviction.newPolicy(settings);
+
+        /**
+         * values with expire time, null if not expire proactively
+         */
+        private final TimerWheel timerWheel = settings.proactiveExpiry
+                ? new TimerWheel(settings.ticker.read()) : null;
 
-        protected Segment(int initialCapacity, float lf) {
+        protected Segment(int initialCapacity, float lf, boolean longKey) {
             loadFactor = lf;
-            setTable(new HashEntry[initialCapacity]);
+            this.longKey = longKey;
+            setTable(new Table(Math.max(2, initialCapacity), longKey));
         }
 
         void postRemove(DirectValue value) {
-            lru.remove(value);
+            policy.remove(value);
+            unschedule(value);
             value.release();
         }
 
@@ -336,239 +648,526 @@ class ConcurrentMap {
         }
 
         /**
-         * Sets table to new HashEntry array.
+         * Sets table to new Table.
          * Call only while holding lock or in constructor.
          */
-        void setTable(HashEntry[] newTable) {
-            threshold = (int) (newTable.length * loadFactor);
+        void setTable(Table newTable) {
+            threshold = Math.min((int) (newTable.capacity() * loadFactor), newTable.capacity() - 1);
             table = newTable;
         }
 
         /**
-         * Returns properly casted first entry of bin for given hash.
+         * find the slot holding value of key. Call only while holding lock.
+         *
+         * @return the slot index, -1 if not found
+         */
+        protected int find(Table tab, Object key, long longKey, int hash) {
+            int[] hashes = tab.hashes;
+            DirectValue[] values = tab.values;
+            int mask = tab.mask;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                DirectValue value = values[i];
+                if (value == null) {
+                    return -1;
+                }
+                if (value != REMOVED && hashes[i] == hash && tab.matches(i, value, key, longKey)) {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * find the slot holding the value. Call only while holding lock.
+         *
+         * @return the slot index, -1 if not found
+         */
+        private int indexOf(Table tab, DirectValue target) {
+            DirectValue[] values = tab.values;
+            int mask = tab.mask;
+            for (int i = target.hash() & mask; ; i = (i + 1) & mask) {
+                DirectValue value = values[i];
+                if (value == null) {
+                    return -1;
+                }
+                if (value == target) {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * find the value of key without lock.
+         *
+         * @return null if not found
          */
-        protected HashEntry getFirst(int hash) {
-            HashEntry[] tab = table;
-            return tab[hash & (tab.length - 1)];
+        protected DirectValue lookup(Table tab, Object key, long longKey, int hash) {
+            int[] hashes = tab.hashes;
+            DirectValue[] values = tab.values;
+            int mask = tab.mask;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                DirectValue value = UNSAFE.getArrayElementVolatile(values, i);
+                if (value == null) {
+                    return null;
+                }
+                // the hash is written before the value published, and the value itself is checked by matches,
+                // so a stale hash only cause a miss
+                if (value != REMOVED && hashes[i] == hash && tab.matches(i, value, key, longKey)) {
+                    // a long key is not checked by the value, make sure the slot is not reused while reading it
+                    if (tab.keys == null || UNSAFE.getArrayElementVolatile(values, i) == value) {
+                        return value;
+                    }
+                }
+            }
         }
 
         /**
-         * create new Hash entry from new inserted value
+         * find the value of key in both tables without lock.
+         * The old table is searched first: a migrated entry is published to the new table before
+         * its old slot marked as removed. A miss is retried if a rehash started meanwhile, the tables read
+         * may not cover the new one.
          */
-        protected HashEntry createHashEntry(Object key, int hash, HashEntry next,
-                                            DirectValue value) {
-            lru.insert(value);
-            return new HashEntry(key, hash, next, value);
+        private DirectValue lookup(Object key, long longKey, int hash) {
+            for (; ; ) {
+                Table tab = table;
+                Table old = oldTable;
+                if (old == tab) {
+                    // a rehash published oldTable but not the new table yet
+                    continue;
+                }
+                DirectValue value = null;
+                if (old != null) {
+                    value = lookup(old, key, longKey, hash);
+                }
+                if (value == null) {
+                    value = lookup(tab, key, longKey, hash);
+                }
+                if (value != null || table == tab) {
+                    return value;
+                }
+            }
         }
 
         /**
-         * used for rehash and remove copy
+         * find the first empty or removed slot for hash
          */
-        protected HashEntry relinkHashEntry(HashEntry e, HashEntry next) {
-            return new HashEntry(e.key, e.hash, next, e.value);
+        private int freeSlot(Table tab, int hash) {
+            DirectValue[] values = tab.values;
+            int mask = tab.mask;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                DirectValue value = values[i];
+                if (value == null || value == REMOVED) {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * add a value to table, return the slot index. Call only while holding lock.
+         */
+        private int install(Table tab, int hash, long longKey, DirectValue value) {
+            int index = freeSlot(tab, hash);
+            if (tab.values[index] == null) {
+                used++;
+            }
+            tab.hashes[index] = hash;
+            if (tab.keys != null) {
+                tab.keys[index] = longKey;
+            }
+            UNSAFE.putArrayElementOrdered(tab.values, index, value);
+            return index;
         }
 
         protected void clear() {
             writeLock().lock();
             try {
                 if (count != 0) {
-                    HashEntry[] tab = table;
-                    for (int i = 0; i < tab.length; i++) {
-                        HashEntry entry = tab[i];
-                        tab[i] = null;
-                        if (entry != null) {
-                            postRemove(entry.value);
-                        }
+                    Table tab = table;
+                    Table old = oldTable;
+                    if (old != null) {
+                        postRemoveAll(old);
+                        oldTable = null;
                     }
+                    postRemoveAll(tab);
                     ++modCount;
+                    used = 0;
+                    setTable(new Table(tab.capacity(), longKey));
                     count = 0; // write-volatile
+                    if (timerWheel != null) {
+                        timerWheel.clear();
+                    }
                 }
             } finally {
                 writeLock().unlock();
             }
         }
 
-        DirectValue remove(Object key, int hash) {
+        private void postRemoveAll(Table tab) {
+            for (DirectValue value : tab.values) {
+                if (value != null && value != REMOVED) {
+                    postRemove(value);
+                }
+            }
+        }
+
+        DirectValue remove(Object key, long longKey, int hash) {
             writeLock().lock();
             try {
-                int c = count - 1;
-                HashEntry[] tab = table;
-                int index = hash & (tab.length - 1);
-                HashEntry first = tab[index];
-                HashEntry e = first;
-                while (e != null && (e.hash != hash || !key.equals(e.key)))
-                    e = e.next;
-
-                DirectValue oldValue = null;
-                if (e != null) {
-                    oldValue = e.value;
-                    ++modCount;
-                    // All entries following removed node can stay in list, but all preceding ones need to be
-                    // cloned.
-                    HashEntry newFirst = e.next;
-                    for (HashEntry p = first; p != e; p = p.next)
-                        newFirst = relinkHashEntry(p, newFirst);
-                    tab[index] = newFirst;
-                    count = c; // write-volatile
-                    postRemove(e.value);
-                }
-                return oldValue;
+                migrate();
+                Table tab = oldTable;
+                int index = tab == null ? -1 : find(tab, key, longKey, hash);
+                if (index < 0) {
+                    tab = table;
+                    index = find(tab, key, longKey, hash);
+                }
+                if (index < 0) {
+                    return null;
+                }
+                return removeAt(tab, index, RemovalCause.EXPLICIT);
             } finally {
                 writeLock().unlock();
             }
         }
 
-        protected DirectValue put(Object key, int hash, DirectValue value, boolean onlyIfAbsent) {
+        boolean remove(DirectValue value, RemovalCause cause) {
             writeLock().lock();
             try {
-                int c = count;
-                if (c++ > threshold) // ensure size
-                    rehash();
-                HashEntry[] tab = table;
-                int index = hash & (tab.length - 1);
-                HashEntry first = tab[index];
-                HashEntry e = first;
-                while (e != null && (e.hash != hash || !key.equals(e.key)))
-                    e = e.next;
-
-                DirectValue oldValue;
-                if (e != null) {
-                    oldValue = e.value;
+                migrate();
+                Table tab = oldTable;
+                int index = tab == null ? -1 : indexOf(tab, value);
+                if (index < 0) {
+                    tab = table;
+                    index = indexOf(tab, value);
+                }
+                if (index < 0) {
+                    return false;
+                }
+                removeAt(tab, index, cause);
+                return true;
+            } finally {
+                writeLock().unlock();
+            }
+        }
+
+        private DirectValue removeAt(Table tab, int index, RemovalCause cause) {
+            DirectValue oldValue = tab.values[index];
+            ++modCount;
+            // keep the slot as removed, so the probe sequences pass through it still reach later entries
+            UNSAFE.putArrayElementOrdered(tab.values, index, REMOVED);
+            count = count - 1; // write-volatile
+            if (notifier != null) {
+                if (tab.keys != null) {
+                    notifier.removed(null, tab.keys[index], cause);
+                } else if (oldValue.offHeapKey()) {
+                    // notifier retains the buffer, and reads key after lock is released
+                    notifier.removed(oldValue, cause);
+                } else {
+                    notifier.removed(oldValue.getKey(), 0, cause);
+                }
+            }
+            postRemove(oldValue);
+            return oldValue;
+        }
+
+        protected DirectValue put(Object key, long longKey, int hash, DirectValue value, boolean onlyIfAbsent) {
+            writeLock().lock();
+            try {
+                migrate();
+                value.hash(hash);
+                // an entry not migrated yet is replaced in place, it will be moved later
+                Table tab = oldTable;
+                int index = tab == null ? -1 : find(tab, key, longKey, hash);
+                if (index < 0) {
+                    tab = table;
+                    index = find(tab, key, longKey, hash);
+                }
+                if (index >= 0) {
+                    DirectValue oldValue = tab.values[index];
                     if (!onlyIfAbsent) {
                         preInstall(key, value);
-                        e.value = value;
-                        lru.remove(oldValue);
-                        lru.insert(value);
+                        UNSAFE.putArrayElementOrdered(tab.values, index, value);
+                        policy.replace(oldValue, value);
+                        unschedule(oldValue);
+                        schedule(value);
+                        if (notifier != null) {
+                            notifier.removed(key, longKey, RemovalCause.REPLACED);
+                        }
                         oldValue.release();
                     } else {
                         value.release();
                     }
-                } else {
-                    oldValue = null;
-                    preInstall(key, value);
-                    ++modCount;
-                    tab[index] = createHashEntry(key, hash, first, value);
-                    count = c; // write-volatile
+                    return oldValue;
                 }
 
-                return oldValue;
+                if (used >= threshold) { // ensure size
+                    rehash();
+                }
+                preInstall(key, value);
+                policy.insert(value);
+                schedule(value);
+                install(table, hash, longKey, value);
+                ++modCount;
+                count = count + 1; // write-volatile
+                return null;
             } finally {
                 writeLock().unlock();
             }
         }
 
 
-        DirectValue get(final Object key, final int hash) {
-            readLock().lock();
+        /**
+         * track value in timer wheel if it has expire time. Call only while holding lock.
+         */
+        private void schedule(DirectValue value) {
+            if (timerWheel != null && value.expireAt() > 0) {
+                timerWheel.schedule((TimedValue) value);
+            }
+        }
+
+        void reschedule(DirectValue value) {
+            if (timerWheel == null) {
+                return;
+            }
+            writeLock().lock();
             try {
-                if (count != 0) { // read-volatile
-                    HashEntry e = getFirst(hash);
-                    while (e != null) {
-                        if (e.hash == hash && key.equals(e.key)) {
-                            lru.promoted(e.value);
-                            return e.value;
-                        }
-                        e = e.next;
-                    }
+                Table tab = oldTable;
+                if ((tab == null || indexOf(tab, value) < 0) && indexOf(table, value) < 0) {
+                    return;
                 }
-                return null;
+                unschedule(value);
+                schedule(value);
+            } finally {
+                writeLock().unlock();
+            }
+        }
+
+        /**
+         * Call only while holding lock.
+         */
+        private void unschedule(DirectValue value) {
+            if (timerWheel != null) {
+                timerWheel.remove((TimedValue) value);
+            }
+        }
+
+        /**
+         * advance the timer wheel, remove expired values.
+         *
+         * @return the number of values removed
+         */
+        int expire(long now) {
+            if (timerWheel == null) {
+                return 0;
+            }
+            writeLock().lock();
+            try {
+                return removeExpired(timerWheel.advance(now), now);
             } finally {
-                readLock().unlock();
+                writeLock().unlock();
+            }
+        }
+
+        /**
+         * lock-free scan of SWEEP_STEP slots of table, collect the values expired at now.
+         * entries in the old table while rehashing are left to next pass.
+         *
+         * @return the slot to continue from, -1 if reached the end of table
+         */
+        int sweep(int from, long now, List<DirectValue> expired) {
+            if (count == 0) { // read-volatile
+                return -1;
+            }
+            DirectValue[] values = table.values;
+            int end = Math.min(from + SWEEP_STEP, values.length);
+            for (int i = from; i < end; i++) {
+                DirectValue value = UNSAFE.getArrayElementVolatile(values, i);
+                if (value != null && value != REMOVED && value.expired(now)) {
+                    expired.add(value);
+                }
             }
+            return end == values.length ? -1 : end;
         }
 
-        boolean containsKey(final Object key, final int hash) {
-            readLock().lock();
+        /**
+         * remove the values still in segment and expired at now, with one lock. a value found expired may have been
+         * pushed by a read since.
+         *
+         * @return the number of values removed
+         */
+        int removeExpired(List<DirectValue> values, long now) {
+            writeLock().lock();
             try {
-                if (count != 0) { // read-volatile
-                    HashEntry e = getFirst(hash);
-                    while (e != null) {
-                        if (e.hash == hash && key.equals(e.key))
-                            return true;
-                        e = e.next;
+                int removed = 0;
+                for (DirectValue value : values) {
+                    if (value.expired(now) && remove(value, RemovalCause.EXPIRED)) {
+                        removed++;
                     }
                 }
-                return false;
+                return removed;
             } finally {
-                readLock().unlock();
+                writeLock().unlock();
+            }
+        }
+
+        /**
+         * lock-free get. The buffer of returned value may be released by a concurrent writer at any time,
+         * the caller should retain it before read.
+         */
+        DirectValue get(final Object key, final long longKey, final int hash) {
+            if (count != 0) { // read-volatile
+                DirectValue value = lookup(key, longKey, hash);
+                if (value != null) {
+                    policy.access(value);
+                }
+                return value;
+            }
+            return null;
+        }
+
+        boolean containsKey(final Object key, final long longKey, final int hash) {
+            return count != 0 && lookup(key, longKey, hash) != null;
+        }
+
+        /**
+         * lock-free sample. Probe a few slots from a random one, return the first value found.
+         *
+         * @return null if segment is empty or no value found
+         */
+        DirectValue sample(Random random) {
+            if (count == 0) { // read-volatile
+                return null;
             }
+            Table tab = table;
+            int mask = tab.mask;
+            int start = random.nextInt(tab.capacity());
+            for (int i = 0; i < SAMPLE_PROBES && i <= mask; i++) {
+                DirectValue value = UNSAFE.getArrayElementVolatile(tab.values, (start + i) & mask);
+                if (value != null && value != REMOVED) {
+                    return value;
+                }
+            }
+            return null;
         }
 
-        protected Iterator<HashEntry> iterator() {
+        protected Iterator<DirectValue> iterator() {
             return new SegmentIterator(this);
         }
 
+        /**
+         * the tables, new table first. entries moved during iteration are missed, but not returned twice.
+         */
+        Table[] tables() {
+            Table tab = table;
+            Table old = oldTable;
+            while (old == tab) {
+                // a rehash published oldTable but not the new table yet
+                tab = table;
+            }
+            if (old == null) {
+                return new Table[]{tab};
+            }
+            return new Table[]{tab, old};
+        }
+
+        /**
+         * Start moving entries to a new table, dropping removed slots. Entries are moved incrementally
+         * by following writes, see {@link #migrate()}.
+         * The table is doubled unless most used slots are removed ones, in which case the size is kept.
+         */
         void rehash() {
-            HashEntry[] oldTable = table;
-            int oldCapacity = oldTable.length;
-            if (oldCapacity >= MAXIMUM_CAPACITY)
-                return;
+            if (oldTable != null) {
+                // writes out-run migration, should not happen with a positive MIGRATE_STEP
+                migrate(oldTable.capacity());
+            }
+            Table tab = table;
+            int oldCapacity = tab.capacity();
+            int newCapacity = oldCapacity;
+            if (count >= threshold / 2 && oldCapacity < MAXIMUM_CAPACITY) {
+                newCapacity = oldCapacity << 1;
+            }
 
-            HashEntry[] newTable = new HashEntry[oldCapacity << 1];
-            threshold = (int) (newTable.length * loadFactor);
-            int sizeMask = newTable.length - 1;
-            for (HashEntry e : oldTable) {
-                // We need to guarantee that any existing reads of old Map can
-                //  proceed. So we cannot yet null out each bin.
-                if (e != null) {
-                    HashEntry next = e.next;
-                    int idx = e.hash & sizeMask;
-
-                    //  Single node on list
-                    if (next == null) {
-                        newTable[idx] = e;
-                    } else {
-                        // Reuse trailing consecutive sequence at same slot
-                        HashEntry lastRun = e;
-                        int lastIdx = idx;
-                        for (HashEntry last = next; last != null; last = last.next) {
-                            int k = last.hash & sizeMask;
-                            if (k != lastIdx) {
-                                lastIdx = k;
-                                lastRun = last;
-                            }
-                        }
-                        newTable[lastIdx] = lastRun;
+            migrated = 0;
+            used = 0;
+            // readers load table before oldTable, so oldTable must be published first
+            oldTable = tab;
+            setTable(new Table(newCapacity, longKey));
+            migrate();
+        }
 
-                        // Clone all remaining nodes
-                        for (HashEntry p = e; p != lastRun; p = p.next) {
-                            int k = p.hash & sizeMask;
-                            HashEntry n = newTable[k];
-                            newTable[k] = relinkHashEntry(p, n);
-                        }
-                    }
+        /**
+         * move a bounded number of slots from the old table while rehashing. Call only while holding lock.
+         */
+        void migrate() {
+            if (oldTable != null) {
+                migrate(MIGRATE_STEP);
+            }
+        }
+
+        private void migrate(int slots) {
+            Table old = oldTable;
+            Table tab = table;
+            int end = Math.min(migrated + slots, old.capacity());
+            for (int i = migrated; i < end; i++) {
+                DirectValue value = old.values[i];
+                if (value != null && value != REMOVED) {
+                    install(tab, old.hashes[i], old.keys == null ? 0 : old.keys[i], value);
+                    UNSAFE.putArrayElementOrdered(old.values, i, REMOVED);
                 }
             }
-            table = newTable;
+            migrated = end;
+            if (end == old.capacity()) {
+                oldTable = null;
+            }
         }
     }
 
-    public static class HashEntry {
-        public final Object key;
-        public final int hash;
-        public final HashEntry next;
+    /**
+     * Open-addressing table with linear probing.
+     * A slot is empty if value is null, hash of key is kept in a flat int array so probing
+     * compare hashes without touching the value objects.
+     */
+    protected static final class Table {
+        final int[] hashes;
+        final DirectValue[] values;
+        /**
+         * the keys, if map use primitive long keys. null otherwise.
+         */
+        final long[] keys;
+        final int mask;
 
-        public volatile DirectValue value;
+        /**
+         * @param capacity must be power of two
+         */
+        Table(int capacity, boolean longKey) {
+            this.hashes = new int[capacity];
+            this.values = new DirectValue[capacity];
+            this.keys = longKey ? new long[capacity] : null;
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * if the entry in slot has the key
+         */
+        boolean matches(int index, DirectValue value, Object key, long longKey) {
+            return keys != null ? keys[index] == longKey : value.matches(key);
+        }
 
-        protected HashEntry(Object key, int hash, HashEntry next, DirectValue value) {
-            this.key = key;
-            this.hash = hash;
-            this.next = next;
-            this.value = value;
+        int capacity() {
+            return values.length;
         }
     }
 
-    private class SegmentIterator implements Iterator<HashEntry> {
+    private class SegmentIterator implements Iterator<DirectValue> {
 
         int nextTableIndex;
-        HashEntry[] currentTable;
-        HashEntry nextEntry;
-        HashEntry lastReturned;
-        private final Segment seg;
+        int nextTablesIndex;
+        Table[] tables;
+        DirectValue[] currentTable;
+        DirectValue nextEntry;
+        DirectValue lastReturned;
 
         private SegmentIterator(final Segment memoryStoreSegment) {
             nextTableIndex = -1;
-            this.seg = memoryStoreSegment;
+            tables = memoryStoreSegment.count != 0 ? memoryStoreSegment.tables() : new Table[0];
             advance();
         }
 
@@ -576,7 +1175,7 @@ class ConcurrentMap {
             return nextEntry != null;
         }
 
-        public HashEntry next() {
+        public DirectValue next() {
             if (nextEntry == null)
                 return null;
             lastReturned = nextEntry;
@@ -589,20 +1188,20 @@ class ConcurrentMap {
         }
 
         final void advance() {
-            if (nextEntry != null && (nextEntry = nextEntry.next) != null)
-                return;
-            while (nextTableIndex >= 0) {
-                if ((nextEntry = currentTable[nextTableIndex--]) != null)
-                    return;
-            }
-            if (seg.count != 0) {
-                currentTable = seg.table;
-                for (int j = currentTable.length - 1; j >= 0; --j) {
-                    if ((nextEntry = currentTable[j]) != null) {
-                        nextTableIndex = j - 1;
+            nextEntry = null;
+            for (; ; ) {
+                while (nextTableIndex >= 0) {
+                    DirectValue value = UNSAFE.getArrayElementVolatile(currentTable, nextTableIndex--);
+                    if (value != null && value != REMOVED) {
+                        nextEntry = value;
                         return;
                     }
                 }
+                if (nextTablesIndex >= tables.length) {
+                    return;
+                }
+                currentTable = tables[nextTablesIndex++].values;
+                nextTableIndex = currentTable.length - 1;
             }
         }
     }
@@ -626,11 +1225,17 @@ class ConcurrentMap {
 
         @Override
         public boolean contains(Object o) {
+            if (longKey) {
+                return o instanceof Long && ConcurrentMap.this.containsKey(null, (Long) o);
+            }
             return ConcurrentMap.this.containsKey(o);
         }
 
         @Override
         public boolean remove(Object o) {
+            if (longKey) {
+                return o instanceof Long && ConcurrentMap.this.remove(null, (Long) o) != null;
+            }
             return ConcurrentMap.this.remove(o) != null;
         }
 
@@ -656,60 +1261,27 @@ class ConcurrentMap {
         }
     }
 
-    class KeyIterator extends HashEntryIterator implements Iterator<Object> {
+    class KeyIterator extends HashIterator implements Iterator<Object> {
 
         @Override
         public Object next() {
-            return nextEntry().key;
-        }
-    }
-
-    abstract class HashEntryIterator extends HashIterator {
-        private HashEntry myNextEntry;
-
-        public HashEntryIterator() {
-            myNextEntry = advanceToNextEntry();
-        }
-
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException("remove is not supported");
-        }
-
-        @Override
-        public HashEntry nextEntry() {
-            if (myNextEntry == null) {
-                throw new NoSuchElementException();
-            }
-            HashEntry entry = myNextEntry;
-            myNextEntry = advanceToNextEntry();
-            return entry;
-        }
-
-        @Override
-        public boolean hasNext() {
-            return myNextEntry != null;
-        }
-
-        private HashEntry advanceToNextEntry() {
-            HashEntry myEntry = null;
-            while (super.hasNext()) {
-                myEntry = super.nextEntry();
-                if (myEntry != null) {
-                    break;
-                }
-            }
-            return myEntry;
+            nextEntry();
+            return longKey ? Long.valueOf(lastLongKey) : lastKey;
         }
-
     }
 
     abstract class HashIterator {
         int nextSegmentIndex;
         int nextTableIndex;
-        HashEntry[] currentTable;
-        HashEntry nextEntry;
-        HashEntry lastReturned;
+        int nextTablesIndex;
+        Table[] tables = new Table[0];
+        Table currentTable;
+        DirectValue nextEntry;
+        Object nextKey;
+        long nextLongKey;
+        DirectValue lastReturned;
+        Object lastKey;
+        long lastLongKey;
 
         HashIterator() {
             nextSegmentIndex = segments.length - 1;
@@ -722,24 +1294,35 @@ class ConcurrentMap {
         }
 
         final void advance() {
-            if (nextEntry != null && (nextEntry = nextEntry.next) != null)
-                return;
-
-            while (nextTableIndex >= 0) {
-                if ((nextEntry = currentTable[nextTableIndex--]) != null)
+            nextEntry = null;
+            for (; ; ) {
+                while (nextTableIndex >= 0) {
+                    int index = nextTableIndex--;
+                    DirectValue value = UNSAFE.getArrayElementVolatile(currentTable.values, index);
+                    if (value != null && value != REMOVED) {
+                        // off-heap key is read now, skip the entry if it is removed concurrently
+                        Object key = longKey ? null : value.getKey();
+                        if (!longKey && key == null) {
+                            continue;
+                        }
+                        nextEntry = value;
+                        nextKey = key;
+                        nextLongKey = currentTable.keys == null ? 0 : currentTable.keys[index];
+                        return;
+                    }
+                }
+                if (nextTablesIndex < tables.length) {
+                    currentTable = tables[nextTablesIndex++];
+                    nextTableIndex = currentTable.capacity() - 1;
+                    continue;
+                }
+                if (nextSegmentIndex < 0) {
                     return;
-            }
-
-            while (nextSegmentIndex >= 0) {
+                }
                 Segment seg = segments[nextSegmentIndex--];
                 if (seg.count != 0) {
-                    currentTable = seg.table;
-                    for (int j = currentTable.length - 1; j >= 0; --j) {
-                        if ((nextEntry = currentTable[j]) != null) {
-                            nextTableIndex = j - 1;
-                            return;
-                        }
-                    }
+                    tables = seg.tables();
+                    nextTablesIndex = 0;
                 }
             }
         }
@@ -748,10 +1331,12 @@ class ConcurrentMap {
             return nextEntry != null;
         }
 
-        HashEntry nextEntry() {
+        DirectValue nextEntry() {
             if (nextEntry == null)
                 throw new NoSuchElementException();
             lastReturned = nextEntry;
+            lastKey = nextKey;
+            lastLongKey = nextLongKey;
             advance();
             return lastReturned;
         }
@@ -759,11 +1344,18 @@ class ConcurrentMap {
         public void remove() {
             if (lastReturned == null)
                 throw new IllegalStateException();
-            ConcurrentMap.this.remove(lastReturned.key);
+            ConcurrentMap.this.remove(lastReturned);
             lastReturned = null;
         }
     }
 
+    private static int hash(Object key, long longKey) {
+        if (key == null) {
+            return hash((int) (longKey ^ (longKey >>> 32)));
+        }
+        return hash(key.hashCode());
+    }
+
     protected static int hash(int h) {
         // Spread bits to regularize both segment and index locations,
         // using variant of single-word Wang/Jenkins hash.
@@ -0,0 +1,65 @@
+package net.dongliu.direct;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Adapts a user {@link EvictionPolicy} to Policy. The instance is shared by all segments, victims are chosen by
+ * the user policy for the whole map, see {@link ConcurrentMap#coldestCandidates(long, int)}.
+ *
+ * @author Dong Liu
+ */
+class CustomPolicy implements Policy {
+
+    private final EvictionPolicy policy;
+
+    CustomPolicy(EvictionPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public void insert(DirectValue value) {
+        policy.onInsert(value);
+    }
+
+    @Override
+    public void remove(DirectValue value) {
+        policy.onRemove(value);
+    }
+
+    @Override
+    public void replace(DirectValue oldValue, DirectValue value) {
+        remove(oldValue);
+        insert(value);
+    }
+
+    @Override
+    public void access(DirectValue value) {
+        policy.onAccess(value);
+    }
+
+    /**
+     * the user policy only chooses victims in batch
+     */
+    @Override
+    public DirectValue evictNext(DirectValue value) {
+        return null;
+    }
+
+    @Override
+    public List<DirectValue> tails(long bytes, int num) {
+        List<? extends EvictionPolicy.Entry> victims = policy.victims(bytes, num);
+        if (victims == null || victims.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<DirectValue> values = new ArrayList<>(victims.size());
+        for (EvictionPolicy.Entry victim : victims) {
+            // ignore entries not from this cache
+            if (victim instanceof DirectValue && values.size() < num) {
+                values.add((DirectValue) victim);
+            }
+        }
+        return values;
+    }
+}
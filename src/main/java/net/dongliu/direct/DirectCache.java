@@ -1,8 +1,6 @@
 package net.dongliu.direct;
 
 import net.dongliu.direct.allocator.Allocator;
-import net.dongliu.direct.allocator.ByteBuf;
-import net.dongliu.direct.allocator.ByteBufInputStream;
 import net.dongliu.direct.exception.CacheException;
 import net.dongliu.direct.exception.DeSerializeException;
 import net.dongliu.direct.exception.SerializeException;
@@ -10,11 +8,17 @@ import net.dongliu.direct.utils.Size;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -32,7 +36,83 @@ public class DirectCache {
 
     private final Serializer serializer;
 
-    private static final int MAX_EVICTION_NUM = 10;
+    /**
+     * the time source of expiry
+     */
+    private final Ticker ticker;
+
+    /**
+     * if expiry of entries is the time to live after last read, by default
+     */
+    private final boolean expireAfterAccess;
+
+    /**
+     * computes time to live of entries, for values set without expiry. null if not set
+     */
+    private final Expiry expiry;
+
+    /**
+     * if reads call the expiry
+     */
+    private final boolean readExpiry;
+
+    /**
+     * expiry param of internal set and add, to use the Expiry of cache
+     */
+    static final long DEFAULT_EXPIRY = -1;
+
+    /**
+     * if store serialized key off-heap, in the same buffer with value
+     */
+    private final boolean offHeapKey;
+
+    /**
+     * delivers removals to listener, null if no listener
+     */
+    private final RemovalNotifier notifier;
+
+    /**
+     * the background evictor, null if disabled
+     */
+    private final Evictor evictor;
+
+    /**
+     * removes expired entries in background, null if not expire proactively
+     */
+    private final Expirer expirer;
+
+    /**
+     * scans segments for expired entries in background, null if disabled
+     */
+    private final Sweeper sweeper;
+
+    /**
+     * reloads entries due to refresh, null if not refresh
+     */
+    private final Refresher refresher;
+
+    /**
+     * if entries are {@link TimedValue}, for timer wheel or refresh
+     */
+    private final boolean timedValues;
+
+    private final AtomicBoolean destroyed = new AtomicBoolean();
+
+    /**
+     * the beta of XFetch early expiration, larger expires earlier. 0 if disabled
+     */
+    private final double earlyExpirationBeta;
+
+    private final ThreadLocal<Miss> lastMiss = new ThreadLocal<Miss>() {
+        @Override
+        protected Miss initialValue() {
+            return new Miss();
+        }
+    };
+
+    private static final int MAX_EVICTION_NUM = 64;
+
+    private static final int MAX_EVICTION_ROUNDS = 8;
 
     public static DirectCacheBuilder newBuilder() {
         return new DirectCacheBuilder();
@@ -41,13 +121,56 @@ public class DirectCache {
     /**
      * Constructor
      *
-     * @param maxMemory the max off-heap size could use.
+     * @param maxMemory  the max off-heap size could use.
+     * @param offHeapKey if serialize key and store it off-heap with value
      */
-    DirectCache(long maxMemory, int concurrency, Serializer serializer) {
+    DirectCache(long maxMemory, int concurrency, Serializer serializer, boolean offHeapKey) {
+        this(newBuilder().maxMemorySize(maxMemory).concurrency(concurrency).offHeapKey(offHeapKey)
+                .serializer(serializer), false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param longKey if use primitive long keys, see {@link LongDirectCache}
+     */
+    DirectCache(DirectCacheBuilder builder, boolean longKey) {
         int arenaNum = Runtime.getRuntime().availableProcessors() * 2;
-        this.allocator = new Allocator(arenaNum, Size.Kb(8), 11, maxMemory);
-        this.map = new ConcurrentMap(1024, 0.75f, concurrency);
-        this.serializer = serializer;
+        this.allocator = new Allocator(arenaNum, Size.Kb(8), 11, builder.maxMemory);
+        this.notifier = builder.removalListener == null ? null
+                : new RemovalNotifier(this, builder.removalListener, builder.removalExecutor);
+        this.map = new ConcurrentMap(1024, 0.75f, builder.concurrency, longKey, builder, notifier);
+        this.serializer = builder.serializer;
+        this.ticker = builder.ticker;
+        this.ticker.retain();
+        this.expireAfterAccess = builder.expireAfterAccess;
+        this.expiry = builder.expiry;
+        this.readExpiry = expiry != null && !(expiry instanceof Expiry.AfterWrite);
+        this.offHeapKey = builder.offHeapKey && !longKey;
+        if (builder.highWatermark > 0) {
+            long capacity = allocator.getCapacity();
+            this.evictor = new Evictor(this, (long) (capacity * builder.lowWatermark),
+                    (long) (capacity * builder.highWatermark));
+            this.evictor.start();
+        } else {
+            this.evictor = null;
+        }
+        if (builder.proactiveExpiry) {
+            this.expirer = new Expirer(this);
+            this.expirer.start();
+        } else {
+            this.expirer = null;
+        }
+        if (builder.sweepBudgetNanos > 0) {
+            this.sweeper = new Sweeper(this, builder.sweepBudgetNanos);
+            this.sweeper.start();
+        } else {
+            this.sweeper = null;
+        }
+        this.earlyExpirationBeta = builder.earlyExpirationBeta;
+        this.refresher = builder.loader == null ? null
+                : new Refresher(this, builder.loader, builder.refreshAfterWrite, builder.refreshExecutor);
+        this.timedValues = builder.proactiveExpiry || refresher != null;
     }
 
     /**
@@ -56,7 +179,17 @@ public class DirectCache {
      * @return null if not exists.
      */
     public <V> Value<V> get(Object key, Class<V> clazz) {
-        Value<InputStream> value = _get(key);
+        return get(mapKey(key), 0, clazz);
+    }
+
+    /**
+     * retrieve node by key from cache. the key is the object key used in map, or null and the long key
+     * if map use long keys.
+     *
+     * @return null if not exists.
+     */
+    <V> Value<V> get(Object key, long longKey, Class<V> clazz) {
+        Value<InputStream> value = _get(key, longKey);
 
         if (value == null) {
             return null;
@@ -77,145 +210,230 @@ public class DirectCache {
      *
      * @return null if not exists
      */
-    private Value<InputStream> _get(Object key) {
-        Value<InputStream> value = null;
-        ReentrantReadWriteLock lock = lockFor(key);
-        lock.readLock().lock();
+    private Value<InputStream> _get(Object key, long longKey) {
+        DirectValue directValue = map.get(key, longKey);
+        if (directValue == null) {
+            // not exist
+            recordMiss(key, longKey);
+            return null;
+        }
+        long now = ticker.read();
+        if (directValue.expired(now)) {
+            removeExpiredEntry(key, longKey);
+            recordMiss(key, longKey);
+            return null;
+        }
+        if (earlyExpirationBeta > 0 && expiresEarly(directValue, now)) {
+            // a miss for this reader only, the entry is kept for others
+            recordMiss(key, longKey);
+            return null;
+        }
+        directValue.touch(now);
+        if (readExpiry) {
+            expireAfterRead(key, longKey, directValue, now);
+        }
+        // the read is lock-free, value may be removed or replaced concurrently
+        if (!directValue.tryRetain()) {
+            return null;
+        }
+        Value<InputStream> value;
         try {
-            DirectValue directValue = map.get(key);
-            if (directValue == null) {
-                // not exist
-                return null;
-            }
-            if (!directValue.expired()) {
-                InputStream in = directValue.getBuffer() == null ?
-                        null : new ByteBufInputStream(directValue.getBuffer());
-                value = new Value<>(in);
-            }
+            value = new Value<>(directValue.openStream());
         } finally {
-            lock.readLock().unlock();
+            directValue.release();
         }
-
-        if (value == null) {
-            //we cannot call removeExpiredEntry in read lock(write lock-guarded), so we remove it here
-            removeExpiredEntry(key);
+        // after the stream retained buffer, a reload may replace the value by caller thread
+        if (refresher != null) {
+            refresher.read(key, longKey, (TimedValue) directValue, now);
         }
         return value;
     }
 
 
     /**
-     * set a value.if already exist, replace it
+     * set a value.if already exist, replace it. the value expires by the {@link Expiry} of cache if set,
+     * never expires otherwise.
      *
      * @param value cannot be null
      */
     public <V> void set(Object key, V value) {
-        set(key, value, 0);
+        set(mapKey(key), 0, value, DEFAULT_EXPIRY, expireAfterAccess);
     }
 
     /**
      * set a value. if already exist, replace it
      *
-     * @param expiry The amount of time for the element to live, in seconds.
+     * @param expiry The amount of time for the element to live, in seconds. 0 indicates unlimited.
      * @param value  cannot be null
      */
     public <V> void set(Object key, V value, int expiry) {
-        byte[] bytes;
-        if (value == null) {
-            bytes = null;
-        } else {
-            try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-                serializer.serialize(value, bos);
-                bytes = bos.toByteArray();
-            } catch (SerializeException | IOException e) {
-                throw new CacheException("Serialize value failed", e);
-            }
+        set(key, value, expiry, TimeUnit.SECONDS);
+    }
+
+    /**
+     * set a value. if already exist, replace it
+     *
+     * @param duration The amount of time for the element to live, 0 indicates unlimited. Precision is millisecond.
+     * @param value    cannot be null
+     */
+    public <V> void set(Object key, V value, long duration, TimeUnit unit) {
+        set(key, value, duration, unit, expireAfterAccess);
+    }
+
+    /**
+     * set a value. if already exist, replace it
+     *
+     * @param expiry      The amount of time for the element to live, in seconds. 0 indicates unlimited.
+     * @param afterAccess if the element lives for expiry after last read, instead of after set
+     */
+    public <V> void set(Object key, V value, int expiry, boolean afterAccess) {
+        set(key, value, expiry, TimeUnit.SECONDS, afterAccess);
+    }
+
+    /**
+     * set a value. if already exist, replace it
+     *
+     * @param duration    The amount of time for the element to live, 0 indicates unlimited.
+     * @param afterAccess if the element lives for duration after last read, instead of after set
+     */
+    public <V> void set(Object key, V value, long duration, TimeUnit unit, boolean afterAccess) {
+        set(mapKey(key), 0, value, toMillis(duration, unit), afterAccess);
+    }
+
+    boolean expireAfterAccess() {
+        return expireAfterAccess;
+    }
+
+    /**
+     * @param expireMillis the time to live in ms, 0 if unlimited, DEFAULT_EXPIRY to use expiry of cache
+     */
+    <V> void set(Object key, long longKey, V value, long expireMillis, boolean afterAccess) {
+        byte[] bytes = value == null ? null : serialize(value, "value");
+        if (expireMillis == DEFAULT_EXPIRY) {
+            expireMillis = expireAfterWrite(key, longKey, value, bytes);
         }
-        _set(key, bytes, expiry);
+        _set(key, longKey, bytes, expireMillis, afterAccess);
     }
 
     /**
      * set a value. if already exist, replace it
      *
-     * @param expiry The amount of time for the element to live, in seconds.
-     * @param value  the value
+     * @param expireMillis The amount of time for the element to live, in ms.
+     * @param value        the value
      */
-    private void _set(Object key, byte[] value, int expiry) {
+    private void _set(Object key, long longKey, byte[] value, long expireMillis, boolean afterAccess) {
         DirectValue holder = store(key, value);
         if (holder == null) {
             // direct evict
-            logger.debug("Memory exceed capacity, direct evict occurred, key: {}", key);
+            logger.debug("Memory exceed capacity, direct evict occurred, key: {}", key == null ? longKey : key);
             return;
         }
-        if (expiry > 0) {
-            holder.expiry(expiry);
-        }
+        setExpiry(holder, expireMillis, afterAccess);
+        holder.delta(recomputeTime(key, longKey));
 
-        map.put(key, holder);
+        map.put(key, longKey, holder);
+        dispatchRemovals();
     }
 
     /**
      * Put an element in the store only if no element is currently mapped to the elements key.
+     * the value expires by the {@link Expiry} of cache if set, never expires otherwise.
      *
      * @return true if the key is not in cache(even if put op is failed), false otherwise.
      */
     public <V> boolean add(Object key, V value) {
-        return add(key, value, 0);
+        return add(mapKey(key), 0, value, DEFAULT_EXPIRY, expireAfterAccess);
     }
 
     /**
      * Put an element in the store only if no element is currently mapped to the elements key.
      *
-     * @param expiry The amount of time for the element to live, in seconds.
+     * @param expiry The amount of time for the element to live, in seconds. 0 indicates unlimited.
      * @return true if the key is not in cache(even if put op is failed), false otherwise.
      */
     public <V> boolean add(Object key, V value, int expiry) {
+        return add(key, value, expiry, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Put an element in the store only if no element is currently mapped to the elements key.
+     *
+     * @param duration The amount of time for the element to live, 0 indicates unlimited. Precision is millisecond.
+     * @return true if the key is not in cache(even if put op is failed), false otherwise.
+     */
+    public <V> boolean add(Object key, V value, long duration, TimeUnit unit) {
+        return add(key, value, duration, unit, expireAfterAccess);
+    }
+
+    /**
+     * Put an element in the store only if no element is currently mapped to the elements key.
+     *
+     * @param expiry      The amount of time for the element to live, in seconds. 0 indicates unlimited.
+     * @param afterAccess if the element lives for expiry after last read, instead of after add
+     * @return true if the key is not in cache(even if put op is failed), false otherwise.
+     */
+    public <V> boolean add(Object key, V value, int expiry, boolean afterAccess) {
+        return add(key, value, expiry, TimeUnit.SECONDS, afterAccess);
+    }
+
+    /**
+     * Put an element in the store only if no element is currently mapped to the elements key.
+     *
+     * @param duration    The amount of time for the element to live, 0 indicates unlimited.
+     * @param afterAccess if the element lives for duration after last read, instead of after add
+     * @return true if the key is not in cache(even if put op is failed), false otherwise.
+     */
+    public <V> boolean add(Object key, V value, long duration, TimeUnit unit, boolean afterAccess) {
+        return add(mapKey(key), 0, value, toMillis(duration, unit), afterAccess);
+    }
+
+    /**
+     * @param expireMillis the time to live in ms, 0 if unlimited, DEFAULT_EXPIRY to use expiry of cache
+     */
+    <V> boolean add(Object key, long longKey, V value, long expireMillis, boolean afterAccess) {
         // we call map.get twice here, to avoid unnecessary serialize, not good
-        DirectValue oldDirectValue = map.get(key);
-        if (oldDirectValue != null && !oldDirectValue.expired()) {
+        DirectValue oldDirectValue = map.get(key, longKey);
+        if (oldDirectValue != null && !oldDirectValue.expired(ticker.read())) {
             return false;
         }
 
-        byte[] bytes;
-        if (value == null) {
-            bytes = null;
-        } else {
-            try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-                serializer.serialize(value, bos);
-                bytes = bos.toByteArray();
-            } catch (SerializeException | IOException e) {
-                throw new CacheException("Serialize value failed", e);
-            }
+        byte[] bytes = value == null ? null : serialize(value, "value");
+        if (expireMillis == DEFAULT_EXPIRY) {
+            expireMillis = expiry == null ? 0 : toMillis(expiry.expireAfterCreate(userKey(key, longKey), value,
+                    bytes == null ? 0 : bytes.length), TimeUnit.NANOSECONDS);
         }
-
-        return _add(key, bytes, expiry);
+        return _add(key, longKey, bytes, expireMillis, afterAccess);
     }
 
 
     /**
      * Put an element in the store only if no element is currently mapped to the elements key.
      *
-     * @param expiry The amount of time for the element to live, in seconds.
+     * @param expireMillis The amount of time for the element to live, in ms.
      * @return true if the key is not in cache(even if put op is failed), false otherwise.
      */
-    private boolean _add(Object key, byte[] value, int expiry) {
-        DirectValue oldDirectValue = map.get(key);
-        if (oldDirectValue != null && !oldDirectValue.expired()) {
+    private boolean _add(Object key, long longKey, byte[] value, long expireMillis, boolean afterAccess) {
+        DirectValue oldDirectValue = map.get(key, longKey);
+        if (oldDirectValue != null && !oldDirectValue.expired(ticker.read())) {
             return false;
         }
         DirectValue holder = store(key, value);
 
-        ReentrantReadWriteLock lock = lockFor(key);
+        ReentrantReadWriteLock lock = map.lockFor(key, longKey);
         lock.writeLock().lock();
         try {
             // check again
-            oldDirectValue = map.get(key);
-            if (oldDirectValue != null && !oldDirectValue.expired()) {
+            oldDirectValue = map.get(key, longKey);
+            if (oldDirectValue != null && !oldDirectValue.expired(ticker.read())) {
+                if (holder != null) {
+                    holder.release();
+                }
                 return false;
             }
             if (holder != null) {
-                holder.expiry(expiry);
-                oldDirectValue = map.putIfAbsent(key, holder);
+                setExpiry(holder, expireMillis, afterAccess);
+                holder.delta(recomputeTime(key, longKey));
+                oldDirectValue = map.putIfAbsent(key, longKey, holder);
             }
             return oldDirectValue == null;
         } finally {
@@ -223,11 +441,171 @@ public class DirectCache {
         }
     }
 
+    /**
+     * replace the entry of key by a reloaded value, if the entry is still the old one. The new entry keeps the
+     * expiry of the old one, or computed by the {@link Expiry} of cache if set. Reloads still running when cache is
+     * destroyed are dropped.
+     *
+     * @return false if entry has been changed or removed, or cache is destroyed
+     */
+    boolean replace(Object key, long longKey, DirectValue old, Object value) {
+        if (destroyed.get()) {
+            return false;
+        }
+        byte[] bytes = serialize(value, "value");
+        boolean afterAccess = old.afterAccess();
+        long expireMillis = expiry != null ? expireAfterWrite(key, longKey, value, bytes) : old.ttl();
+        DirectValue holder = store(key, bytes);
+        if (holder == null) {
+            return false;
+        }
+
+        ReentrantReadWriteLock lock = map.lockFor(key, longKey);
+        lock.writeLock().lock();
+        try {
+            // destroy sets the flag before it clears segments under their locks
+            if (destroyed.get() || map.get(key, longKey) != old) {
+                holder.release();
+                return false;
+            }
+            setExpiry(holder, expireMillis, afterAccess);
+            holder.delta(old.delta());
+            map.put(key, longKey, holder);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        dispatchRemovals();
+        return true;
+    }
+
+    /**
+     * XFetch: if a read before the expire time should act as expired. The chance rises as expire time approaches,
+     * faster for values taking longer to recompute, so usually one reader recomputes a hot value before it expires.
+     */
+    private boolean expiresEarly(DirectValue value, long now) {
+        long expireAt = value.expireAt();
+        int delta = value.delta();
+        if (expireAt == 0 || delta == 0) {
+            return false;
+        }
+        // -ln(u) for u in (0, 1], exponentially distributed with mean 1
+        double gap = -delta * earlyExpirationBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return now + gap >= expireAt;
+    }
+
+    /**
+     * remember the miss of reader thread, to measure the time to recompute value if the thread sets it later
+     */
+    private void recordMiss(Object key, long longKey) {
+        if (earlyExpirationBeta > 0) {
+            Miss miss = lastMiss.get();
+            miss.key = key;
+            miss.longKey = longKey;
+            miss.time = ticker.read();
+        }
+    }
+
+    /**
+     * the time since this thread missed the key, as the time it took to recompute the value being set.
+     *
+     * @return the time in ms, 0 if unknown
+     */
+    private int recomputeTime(Object key, long longKey) {
+        if (earlyExpirationBeta <= 0) {
+            return 0;
+        }
+        Miss miss = lastMiss.get();
+        if (miss.time == 0 || miss.longKey != longKey || (key == null ? miss.key != null : !key.equals(miss.key))) {
+            return 0;
+        }
+        long elapsed = ticker.read() - miss.time;
+        miss.key = null;
+        miss.time = 0;
+        return (int) Math.max(Math.min(elapsed, Integer.MAX_VALUE), 0);
+    }
+
+    /**
+     * the last key missed by a thread
+     */
+    private static class Miss {
+        Object key;
+        long longKey;
+        long time;
+    }
+
+    /**
+     * the time to live of a value set without explicit expiry, by the {@link Expiry} of cache.
+     *
+     * @return the time to live in ms, 0 if unlimited
+     */
+    private long expireAfterWrite(Object key, long longKey, Object value, byte[] bytes) {
+        if (expiry == null) {
+            return 0;
+        }
+        Object userKey = userKey(key, longKey);
+        int size = bytes == null ? 0 : bytes.length;
+        DirectValue old = map.get(key, longKey);
+        long now = ticker.read();
+        long duration;
+        if (old == null || old.expired(now)) {
+            duration = expiry.expireAfterCreate(userKey, value, size);
+        } else {
+            duration = expiry.expireAfterUpdate(userKey, value, size, remainingNanos(old, now));
+        }
+        return toMillis(duration, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * a read of entry, update its expire time by the {@link Expiry} of cache
+     */
+    private void expireAfterRead(Object key, long longKey, DirectValue value, long now) {
+        long expireAt = value.expireAt();
+        long current = remainingNanos(value, now);
+        long duration = expiry.expireAfterRead(userKey(key, longKey), value.valueSize(), current);
+        if (duration != current) {
+            long expireMillis = toMillis(duration, TimeUnit.NANOSECONDS);
+            long newExpireAt = expireMillis == 0 ? 0 : now + expireMillis;
+            value.expireAt(newExpireAt);
+            // the timer wheel finds later expire time when the bucket is passed, but not earlier ones
+            if (newExpireAt > 0 && (expireAt == 0 || newExpireAt < expireAt)) {
+                map.reschedule(value);
+            }
+        }
+    }
+
+    /**
+     * the remaining time to live of entry in ns, Expiry.NEVER if unlimited
+     */
+    private static long remainingNanos(DirectValue value, long now) {
+        long expireAt = value.expireAt();
+        if (expireAt == 0) {
+            return Expiry.NEVER;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(expireAt - now, 0));
+    }
+
+    /**
+     * convert duration to ms, at least 1 ms if positive.
+     *
+     * @return 0 if unlimited
+     */
+    static long toMillis(long duration, TimeUnit unit) {
+        if (duration <= 0 || duration == Expiry.NEVER) {
+            return 0;
+        }
+        return Math.max(unit.toMillis(duration), 1);
+    }
+
     /**
      * remove key from cache
      */
     public void remove(Object key) {
-        this.map.remove(key);
+        remove(mapKey(key), 0);
+    }
+
+    void remove(Object key, long longKey) {
+        this.map.remove(key, longKey);
+        dispatchRemovals();
     }
 
     /**
@@ -236,27 +614,139 @@ public class DirectCache {
      * @return true if key exists.
      */
     public boolean exists(Object key) {
-        return this.map.containsKey(key);
+        return exists(mapKey(key), 0);
+    }
+
+    boolean exists(Object key, long longKey) {
+        return this.map.containsKey(key, longKey);
     }
 
     /**
-     * return all keys cached.
+     * return all keys cached. the keys are read-only, remove entries by {@link #remove(Object)}.
      */
     public Collection<?> keys() {
-        return this.map.keySet();
+        if (!offHeapKey) {
+            // removing by the view would bypass removal notification
+            return Collections.unmodifiableSet(this.map.keySet());
+        }
+        List<Object> keys = new ArrayList<>();
+        for (Object key : this.map.keySet()) {
+            keys.add(deSerialize(((SerializedKey) key).getBytes(), "key"));
+        }
+        return keys;
     }
 
-    private void removeExpiredEntry(Object key) {
-        ReentrantReadWriteLock lock = lockFor(key);
+    /**
+     * the key used in map. if key is stored off-heap, it is the serialized key
+     */
+    private Object mapKey(Object key) {
+        if (!offHeapKey) {
+            return key;
+        }
+        return new SerializedKey(serialize(key, "key"));
+    }
+
+    private byte[] serialize(Object value, String name) {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+            serializer.serialize(value, bos);
+            return bos.toByteArray();
+        } catch (SerializeException | IOException e) {
+            throw new CacheException("Serialize " + name + " failed", e);
+        }
+    }
+
+    private Object deSerialize(byte[] bytes, String name) {
+        try (InputStream in = new ByteArrayInputStream(bytes)) {
+            return serializer.deSerialize(in, Object.class);
+        } catch (DeSerializeException | IOException e) {
+            throw new CacheException("deSerialize " + name + " failed", e);
+        }
+    }
+
+    private void removeExpiredEntry(Object key, long longKey) {
+        ReentrantReadWriteLock lock = map.lockFor(key, longKey);
         lock.writeLock().lock();
         try {
-            DirectValue newHolder = map.get(key);
-            if (newHolder != null && newHolder.expired()) {
-                map.remove(key);
+            DirectValue newHolder = map.get(key, longKey);
+            if (newHolder != null && newHolder.expired(ticker.read())) {
+                map.remove(newHolder, RemovalCause.EXPIRED);
             }
         } finally {
             lock.writeLock().unlock();
         }
+        dispatchRemovals();
+    }
+
+    /**
+     * set the write time and expire time of a new entry
+     *
+     * @param expiry      the amount of time for the entry to live from now, 0 if unlimited
+     * @param afterAccess if the expire time is pushed by reads
+     */
+    private void setExpiry(DirectValue value, long expiry, boolean afterAccess) {
+        long now = ticker.read();
+        if (value instanceof TimedValue) {
+            ((TimedValue) value).writeTime(now);
+        }
+        if (expiry <= 0) {
+            return;
+        }
+        value.expireAt(now + expiry);
+        value.ttl(expiry, afterAccess);
+    }
+
+    /**
+     * remove expired entries tracked by timer wheels
+     *
+     * @return the number of entries removed
+     */
+    int expire() {
+        int removed = map.expire(ticker.read());
+        if (removed > 0) {
+            logger.debug("Expired entries removed, count: {}", removed);
+            dispatchRemovals();
+        }
+        return removed;
+    }
+
+    /**
+     * scan segments from where last sweep stopped, remove expired entries. call from one thread only.
+     *
+     * @param budgetNanos the time to spend
+     * @return the number of entries removed
+     */
+    int sweep(long budgetNanos) {
+        int removed = map.sweep(ticker.read(), budgetNanos);
+        if (removed > 0) {
+            logger.debug("Expired entries swept, count: {}", removed);
+            dispatchRemovals();
+        }
+        return removed;
+    }
+
+    /**
+     * deliver removal notifications queued by map. call without holding any segment lock.
+     */
+    private void dispatchRemovals() {
+        if (notifier != null) {
+            notifier.dispatch();
+        }
+    }
+
+    /**
+     * the key of user, from the key in map
+     *
+     * @param key     the key in map, null if map use long keys
+     * @param longKey the long key
+     */
+    Object userKey(Object key, long longKey) {
+        if (key == null) {
+            return longKey;
+        }
+        if (offHeapKey) {
+            return deSerialize(((SerializedKey) key).getBytes(), "key");
+        }
+        return key;
     }
 
     /**
@@ -267,23 +757,29 @@ public class DirectCache {
     }
 
     private DirectValue store(Object key, byte[] bytes) {
-        if (bytes == null) {
-            return new DirectValue(key, null);
+        byte[] keyBytes = offHeapKey ? ((SerializedKey) key).getBytes() : null;
+        int keySize = keyBytes == null ? 0 : keyBytes.length;
+        Object heapKey = keyBytes == null ? key : null;
+        DirectValue value = timedValues ? new TimedValue(heapKey, keySize) : new DirectValue(heapKey, keySize);
+        if (bytes == null && keyBytes == null) {
+            return value;
         }
 
-        ByteBuf buffer;
-        buffer = this.allocator.allocate(bytes.length);
-        if (buffer == null) {
-            // cannot allocate memory, evict and try again
-            evict(key);
-            buffer = this.allocator.allocate(bytes.length);
-        }
-        if (buffer == null) {
+        int size = keySize + (bytes == null ? 0 : bytes.length);
+        if (!this.allocator.allocate(value, size) && !evictAndAllocate(value, size)) {
             return null;
         }
-        buffer.writeBytes(bytes);
+        if (evictor != null) {
+            evictor.check(allocator.getUsed().get());
+        }
 
-        return new DirectValue(key, buffer);
+        if (keyBytes != null) {
+            value.setBytes(0, keyBytes, 0, keySize);
+        }
+        if (bytes != null) {
+            value.setBytes(keySize, bytes, 0, bytes.length);
+        }
+        return value;
     }
 
     /**
@@ -295,30 +791,75 @@ public class DirectCache {
 
 
     /**
-     * If the store is over size, evict elements until size is reached
+     * Memory exceed capacity, evict the coldest elements of all segments and try again,
+     * until the memory needed is reclaimed.
+     *
+     * @return false if still cannot allocate after MAX_EVICTION_ROUNDS
      */
-    private void evict(Object key) {
-        int evict = MAX_EVICTION_NUM;
-        List<DirectValue> candidates = map.evictCandidates(key, evict);
-        logger.debug("Evict keys via lru, count: {}", candidates.size());
-        for (DirectValue value : candidates) {
-            removeChosenElements(value);
+    private boolean evictAndAllocate(DirectValue value, int size) {
+        for (int round = 0; round < MAX_EVICTION_ROUNDS; round++) {
+            long needed = this.allocator.getUsed().get() + size - this.allocator.getCapacity();
+            if (!evict(Math.max(needed, size))) {
+                return false;
+            }
+            if (this.allocator.allocate(value, size)) {
+                return true;
+            }
         }
+        return false;
     }
 
     /**
-     * Removes the element chosen by the eviction policy
+     * evict the coldest elements of all segments, at most MAX_EVICTION_NUM elements once.
+     *
+     * @param bytes the memory to reclaim
+     * @return false if there is no element to evict
      */
-    private void removeChosenElements(DirectValue directValue) {
-        // If the element is expired, remove
-        remove(directValue.getKey());
+    boolean evict(long bytes) {
+        List<DirectValue> candidates = map.coldestCandidates(bytes, MAX_EVICTION_NUM);
+        if (candidates.isEmpty()) {
+            return false;
+        }
+        logger.debug("Evict keys, count: {}", candidates.size());
+        for (DirectValue candidate : candidates) {
+            removeChosenElements(candidate);
+        }
+        dispatchRemovals();
+        return true;
     }
 
-    private ReentrantReadWriteLock lockFor(Object key) {
-        return map.lockFor(key);
+    Allocator allocator() {
+        return allocator;
+    }
+
+    /**
+     * Removes the element chosen by the eviction policy
+     */
+    private void removeChosenElements(DirectValue directValue) {
+        // remove the chosen value itself, not a newer one put with the same key
+        map.remove(directValue, RemovalCause.EVICTED);
     }
 
     public void destroy() {
+        if (!destroyed.compareAndSet(false, true)) {
+            return;
+        }
+        if (evictor != null) {
+            evictor.shutdown();
+        }
+        if (expirer != null) {
+            expirer.shutdown();
+        }
+        if (sweeper != null) {
+            sweeper.shutdown();
+        }
+        ticker.release();
+        if (refresher != null) {
+            refresher.shutdown();
+        }
         map.clear();
+        if (notifier != null) {
+            notifier.shutdown();
+        }
     }
 }
@@ -3,6 +3,9 @@ package net.dongliu.direct;
 import net.dongliu.direct.DefaultSerializer;
 import sun.misc.VM;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * direct cache builder
  *
@@ -13,9 +16,35 @@ public class DirectCacheBuilder {
     /**
      * Cache concurrent map concurrent level
      */
-    private int concurrency = 128;
-    private long maxMemory = VM.maxDirectMemory() * 2 / 3;
-    private Serializer serializer = new DefaultSerializer();
+    int concurrency = 128;
+    long maxMemory = VM.maxDirectMemory() * 2 / 3;
+    Serializer serializer = new DefaultSerializer();
+    boolean offHeapKey = false;
+    Eviction eviction = Eviction.LRU;
+    EvictionPolicy evictionPolicy;
+    float protectedRatio = 0.8f;
+    boolean proactiveExpiry = false;
+    /**
+     * time budget of each background sweep tick, 0 if sweep is disabled
+     */
+    long sweepBudgetNanos = 0;
+    Ticker ticker = Ticker.system();
+    boolean expireAfterAccess = false;
+    Expiry expiry;
+    RemovalListener removalListener;
+    Executor removalExecutor;
+    CacheLoader loader;
+    /**
+     * in ms
+     */
+    long refreshAfterWrite;
+    Executor refreshExecutor;
+    double earlyExpirationBeta = 0;
+    /**
+     * background eviction watermarks, as fraction of maxMemory. 0 if background eviction is disabled
+     */
+    float lowWatermark = 0;
+    float highWatermark = 0;
 
     DirectCacheBuilder() {
     }
@@ -30,12 +59,185 @@ public class DirectCacheBuilder {
         return this;
     }
 
-    private DirectCacheBuilder serializer(Serializer serializer) {
+    DirectCacheBuilder serializer(Serializer serializer) {
         this.serializer = serializer;
         return this;
     }
 
+    /**
+     * Store keys off-heap. If set, key is serialized and stored in the same buffer with the value,
+     * the heap only hold a hash index, keys are compared byte-wise with the off-heap copy.
+     * Key should then have a stable serialized form: equal keys must serialize to equal bytes.
+     */
+    public DirectCacheBuilder offHeapKey(boolean offHeapKey) {
+        this.offHeapKey = offHeapKey;
+        return this;
+    }
+
+    /**
+     * The eviction policy, default is {@link Eviction#LRU}.
+     */
+    public DirectCacheBuilder eviction(Eviction eviction) {
+        this.eviction = eviction;
+        return this;
+    }
+
+    /**
+     * The max share of protected values, for {@link Eviction#SLRU}, default is 0.8.
+     */
+    public DirectCacheBuilder protectedRatio(float protectedRatio) {
+        if (protectedRatio <= 0 || protectedRatio >= 1) {
+            throw new IllegalArgumentException("require 0 < protectedRatio < 1");
+        }
+        this.protectedRatio = protectedRatio;
+        return this;
+    }
+
+    /**
+     * A custom eviction policy, overrides {@link #eviction(Eviction)}. The policy instance should not be shared by
+     * caches.
+     */
+    public DirectCacheBuilder evictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+        return this;
+    }
+
+    /**
+     * Evict in a background thread. When used memory exceeds highWatermark * maxMemory, the evictor thread
+     * evicts the coldest values until used memory drops to lowWatermark * maxMemory, so writers seldom
+     * evict by themselves. Writers still evict inline if the evictor falls behind and memory is exhausted.
+     *
+     * @param lowWatermark  fraction of maxMemory the evictor evicts down to
+     * @param highWatermark fraction of maxMemory which triggers the evictor
+     */
+    public DirectCacheBuilder backgroundEviction(float lowWatermark, float highWatermark) {
+        if (lowWatermark <= 0 || lowWatermark >= highWatermark || highWatermark > 1) {
+            throw new IllegalArgumentException("require 0 < lowWatermark < highWatermark <= 1");
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        return this;
+    }
+
+    /**
+     * Scan the cache for expired entries by a low priority background thread, a slot range at a time, and release
+     * their memory. The thread wakes every 100 ms and runs for at most budget, then continues from where it stopped.
+     * Unlike {@link #proactiveExpiry(boolean)}, no timer is kept per entry.
+     *
+     * @param budget the time to spend on each tick
+     */
+    public DirectCacheBuilder backgroundSweep(long budget, TimeUnit unit) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("budget must be positive");
+        }
+        this.sweepBudgetNanos = unit.toNanos(budget);
+        return this;
+    }
+
+    /**
+     * Probabilistic early expiration, XFetch. A read of entry with expire time acts as a miss with a chance rising
+     * as the expire time approaches, weighted by the time the value took to recompute, so usually one reader
+     * recomputes a hot value before it expires, instead of all readers missing at once. The entry is kept for other
+     * readers. The recompute time is measured from a miss of the key to the set of it in the same thread; values
+     * set without a miss before never expire early.
+     *
+     * @param beta larger expires earlier, 1 as usual
+     */
+    public DirectCacheBuilder earlyExpiration(double beta) {
+        if (!(beta > 0)) {
+            throw new IllegalArgumentException("beta must be positive");
+        }
+        this.earlyExpirationBeta = beta;
+        return this;
+    }
+
+    /**
+     * The time source of expiry and recency, default is {@link Ticker#system()}. Use a coarse ticker to save clock
+     * calls of hot paths, or a {@link ManualTicker} to control time in tests.
+     */
+    public DirectCacheBuilder ticker(Ticker ticker) {
+        this.ticker = ticker;
+        return this;
+    }
+
+    /**
+     * If true, the expiry given to set and add is the time to live after last read, as sessions do, instead of
+     * after write. Reads push the expire time without lock. Can also be chosen per entry.
+     */
+    public DirectCacheBuilder expireAfterAccess(boolean expireAfterAccess) {
+        this.expireAfterAccess = expireAfterAccess;
+        return this;
+    }
+
+    /**
+     * Compute time to live per entry, for values set or added without expiry. Explicit expiry passed to set and add
+     * still wins. Without it such values never expire.
+     */
+    public DirectCacheBuilder expiry(Expiry expiry) {
+        this.expiry = expiry;
+        return this;
+    }
+
+    /**
+     * Remove expired entries by a background thread, within about one second after they expire, and release their
+     * memory. Entries are tracked by a timing wheel. Without it, expired entries are removed when read or evicted.
+     */
+    public DirectCacheBuilder proactiveExpiry(boolean proactiveExpiry) {
+        this.proactiveExpiry = proactiveExpiry;
+        return this;
+    }
+
+    /**
+     * Listen to removal of entries. Notifications are delivered by a daemon thread of the cache.
+     */
+    public DirectCacheBuilder removalListener(RemovalListener removalListener) {
+        return removalListener(removalListener, null);
+    }
+
+    /**
+     * Listen to removal of entries. Notifications are delivered by the executor, one task at a time.
+     */
+    public DirectCacheBuilder removalListener(RemovalListener removalListener, Executor executor) {
+        this.removalListener = removalListener;
+        this.removalExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Refresh entries read longer than duration after written, by loader. The read returns the current value at
+     * once, one reload runs for a key at a time by daemon threads of the cache. Set it shorter than the expiry of
+     * entries, to keep hot entries from expiring. Precision is millisecond.
+     */
+    public DirectCacheBuilder refreshAfterWrite(long duration, TimeUnit unit, CacheLoader loader) {
+        return refreshAfterWrite(duration, unit, loader, null);
+    }
+
+    /**
+     * Refresh entries read longer than duration after written, by loader. Reloads are run by the executor.
+     */
+    public DirectCacheBuilder refreshAfterWrite(long duration, TimeUnit unit, CacheLoader loader,
+                                                Executor executor) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("duration must be positive");
+        }
+        if (loader == null) {
+            throw new NullPointerException("loader");
+        }
+        this.refreshAfterWrite = Math.max(unit.toMillis(duration), 1);
+        this.loader = loader;
+        this.refreshExecutor = executor;
+        return this;
+    }
+
     public DirectCache build() {
-        return new DirectCache(maxMemory, concurrency, serializer);
+        return new DirectCache(this, false);
+    }
+
+    /**
+     * Build a cache with primitive long keys. The offHeapKey setting is ignored, long keys are always
+     * stored in the map segments without boxing.
+     */
+    public LongDirectCache buildLong() {
+        return new LongDirectCache(this);
     }
 }
@@ -1,116 +1,271 @@
 package net.dongliu.direct;
 
 import net.dongliu.direct.allocator.ByteBuf;
+import net.dongliu.direct.allocator.ByteBufInputStream;
 
-import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
- * interface of cache-value holder.
+ * The cache entry. It is the off-heap buffer itself, carrying key, hash, expiry and lru links,
+ * so one entry costs one heap object. Caches with timer wheel or refresh use {@link TimedValue}. If memory is not allocated by
+ * {@link net.dongliu.direct.allocator.Allocator#allocate(ByteBuf, int)}, the value is null.
  *
  * @author Dong Liu
  */
-class DirectValue {
+class DirectValue extends ByteBuf implements EvictionPolicy.Entry {
 
+    /**
+     * the key. null if key is stored off-heap, at the head of buffer.
+     */
     private final Object key;
 
     /**
-     * the direct buffer to store value. null if value if null.
+     * the size of serialized key stored in buffer, in bytes. 0 if key is on heap.
+     */
+    private final int keySize;
+
+    /**
+     * the spread hash of key, set by map when put
+     */
+    private int hash;
+
+    /**
+     * The time in ms this entry expires at. 0 indicates unlimited.
+     */
+    private volatile long expireAt;
+
+    /**
+     * The time to live in ms the entry is written with, 0 if unlimited. for expire-after-access entries, the time to
+     * live after last read. the negative seconds if it does not fit in int of ms.
      */
-    private final ByteBuf buffer;
+    private int ttl;
 
     /**
-     * The amount of time for the element to live, in seconds. 0 indicates unlimited.
+     * if the expire time is pushed by reads
      */
-    private volatile int expiry = 0;
+    private boolean afterAccess;
 
     /**
-     * The created time of this cache entry.
-     * If  an Element in the Cache is replaced with a new Element for the same key,
-     * then created should be updated to reflect that.
+     * The time in ms it took to recompute the value, for early expiration. 0 if unknown
      */
-    private volatile long created;
+    private int delta;
 
-    // for lru
+    // for eviction policy
     DirectValue successor;
     DirectValue precursor;
-    private volatile long lastPromoted;
+    /**
+     * which list of the policy this value is in, for policies with more than one list
+     */
+    byte queue;
+    /**
+     * reference bit for clock policy. set by readers with plain write, a lost write only costs accuracy.
+     */
+    boolean referenced;
+    /**
+     * position of this value in the policy heap, for heap based policies
+     */
+    int heapIndex;
+    /**
+     * the eviction rank, values with lower rank are evicted first, across segments.
+     * recency policies use the truncated ticker time of last promotion.
+     * only the difference of two values is meaningful.
+     */
+    private volatile int rank;
 
-    private static final AtomicLongFieldUpdater<DirectValue> updater
-            = AtomicLongFieldUpdater.newUpdater(DirectValue.class, "lastPromoted");
+    private static final AtomicIntegerFieldUpdater<DirectValue> updater
+            = AtomicIntegerFieldUpdater.newUpdater(DirectValue.class, "rank");
 
-    public DirectValue(Object key, ByteBuf buffer) {
-        this.buffer = buffer;
-        this.created = System.currentTimeMillis();
+    /**
+     * create entry with key on heap.
+     */
+    public DirectValue(Object key) {
+        this(key, 0);
+    }
+
+    /**
+     * @param key     the key, null if key is stored off-heap
+     * @param keySize the size of serialized key stored in buffer, 0 if key is on heap
+     */
+    DirectValue(Object key, int keySize) {
         this.key = key;
+        this.keySize = keySize;
     }
 
-    public int capacity() {
-        return buffer.capacity();
+    /**
+     * the size of value, in bytes
+     */
+    public int valueSize() {
+        return size() - keySize;
     }
 
-    public int size() {
-        return buffer.size();
+    /**
+     * if value is null. serialized non-null value always has bytes.
+     */
+    public boolean nullValue() {
+        return valueSize() == 0;
     }
 
+    /**
+     * if key is serialized and stored in buffer
+     */
+    boolean offHeapKey() {
+        return keySize != 0;
+    }
+
+    /**
+     * the key. if key is stored off-heap, return a new SerializedKey read from buffer.
+     *
+     * @return null if key is stored off-heap, and the buffer has been released by a concurrent remove
+     */
     public Object getKey() {
-        return key;
+        if (keySize == 0) {
+            return key;
+        }
+        // may be called without lock, guard the buffer from being released while copying
+        if (!tryRetain()) {
+            return null;
+        }
+        try {
+            byte[] bytes = new byte[keySize];
+            getBytes(0, bytes, 0, keySize);
+            return new SerializedKey(bytes);
+        } finally {
+            release();
+        }
+    }
+
+    int hash() {
+        return hash;
+    }
+
+    @Override
+    public int keyHash() {
+        return hash;
+    }
+
+    void hash(int hash) {
+        this.hash = hash;
+    }
+
+    /**
+     * if this value is stored with the key
+     */
+    boolean matches(Object key) {
+        if (keySize == 0) {
+            return key.equals(this.key);
+        }
+        // may be called without lock, guard the buffer from being released while comparing
+        if (!(key instanceof SerializedKey) || !tryRetain()) {
+            return false;
+        }
+        try {
+            return ((SerializedKey) key).contentEquals(this, keySize);
+        } finally {
+            release();
+        }
     }
 
     /**
      * read value in bytes
      *
-     * @return not null
+     * @return null if value is null
      */
     public byte[] readValue() {
-        if (buffer == null) {
+        if (nullValue()) {
             return null;
         }
         // this guard is not thread-safe
-        byte[] bytes = new byte[size()];
-        buffer.readBytes(bytes);
+        byte[] bytes = new byte[valueSize()];
+        getBytes(keySize, bytes, 0, bytes.length);
         return bytes;
     }
 
-    public ByteBuf getBuffer() {
-        return buffer;
+    /**
+     * open a stream to read value. the stream retains the buffer until it is closed.
+     *
+     * @return null if value is null
+     */
+    public InputStream openStream() {
+        if (nullValue()) {
+            return null;
+        }
+        return new ByteBufInputStream(this, keySize, valueSize());
     }
 
-    public void release() {
-        if (buffer != null) {
-            buffer.release();
-        }
+    /**
+     * the time in ms this entry expires at, 0 if unlimited
+     */
+    long expireAt() {
+        return expireAt;
     }
 
-    public boolean expired() {
-        long cur = System.currentTimeMillis();
-        return expiry > 0 && cur - created > expiry;
+    /**
+     * set the time in ms this entry expires at, 0 if unlimited
+     */
+    void expireAt(long expireAt) {
+        this.expireAt = expireAt;
     }
 
-    public void lastUpdate(long lastUpdate) {
-        this.created = lastUpdate;
+    /**
+     * @param ttl         the time to live in ms, 0 if unlimited
+     * @param afterAccess if the time to live is pushed by reads
+     */
+    void ttl(long ttl, boolean afterAccess) {
+        this.ttl = ttl <= Integer.MAX_VALUE ? (int) ttl : (int) -Math.min(ttl / 1000, Integer.MAX_VALUE);
+        this.afterAccess = afterAccess;
     }
 
-    public long lastUpdate() {
-        return this.created;
+    /**
+     * the time to live in ms the entry is written with, 0 if unlimited
+     */
+    long ttl() {
+        return ttl >= 0 ? ttl : -ttl * 1000L;
     }
 
-    public int expiry() {
-        return this.expiry;
+    /**
+     * if the expire time is pushed by reads
+     */
+    boolean afterAccess() {
+        return afterAccess;
+    }
+
+    int delta() {
+        return delta;
+    }
+
+    void delta(int delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * a read, push the expire time of expire-after-access entry to now + ttl. called by lock-free readers,
+     * racing readers write close times, a lost write only shortens life by the gap of two reads.
+     */
+    void touch(long now) {
+        if (afterAccess) {
+            long expireAt = now + ttl();
+            // skip the write of reads in the same tick
+            if (expireAt > this.expireAt) {
+                this.expireAt = expireAt;
+            }
+        }
     }
 
-    public void expiry(int expiry) {
-        this.expiry = expiry;
+    public boolean expired(long now) {
+        long expireAt = this.expireAt;
+        return expireAt > 0 && now > expireAt;
     }
 
-    long getLastPromoted() {
-        return lastPromoted;
+    int getRank() {
+        return rank;
     }
 
-    boolean compareAndSetLastPromoted(long expect, long update) {
+    boolean compareAndSetRank(int expect, int update) {
         return updater.compareAndSet(this, expect, update);
     }
 
-    public void setLastPromoted(long lastPromoted) {
-        this.lastPromoted = lastPromoted;
+    public void setRank(int rank) {
+        this.rank = rank;
     }
 }
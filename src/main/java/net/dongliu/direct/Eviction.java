@@ -0,0 +1,153 @@
+package net.dongliu.direct;
+
+/**
+ * Eviction policies can be used by cache, set by {@link DirectCacheBuilder#eviction(Eviction)}.
+ * Each map segment has its own policy instance. For other policies, see {@link EvictionPolicy}.
+ *
+ * @author Dong Liu
+ */
+public enum Eviction {
+
+    /**
+     * Least recently used. Reads are recorded in lossy buffers without lock, and promote values in batch.
+     */
+    LRU {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new Lru(settings.ticker, 0);
+        }
+    },
+
+    /**
+     * Segmented lru, scan resistant. New values enter a probation lru, and are moved to a protected lru on a second
+     * read. Values are evicted from probation first, so values read only once, as by scans, do not push out the
+     * working set. The share of protected lru is set by {@link DirectCacheBuilder#protectedRatio(float)}.
+     */
+    SLRU {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new Slru(settings.protectedRatio, settings.ticker);
+        }
+    },
+
+    /**
+     * First in, first out. Reads cost nothing, values are evicted in insertion order.
+     */
+    FIFO {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new Fifo(settings.ticker);
+        }
+    },
+
+    /**
+     * Least frequently used, by the count of reads of each value. Without aging, values read often long ago stay.
+     */
+    LFU {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new Lfu();
+        }
+    },
+
+    /**
+     * Adaptive replacement cache. Balances a recent lru of values read once against a frequent lru of values read
+     * again, adapting their sizes by ghost lists of recently removed keys.
+     */
+    ARC {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new Arc(settings.ticker);
+        }
+    },
+
+    /**
+     * W-TinyLFU. New values enter a small lru window, when leaving the window they are admitted to the main
+     * lru only if they are read more frequently than the main victim, by a count-min frequency sketch.
+     * Values read only once, as by scans, are evicted first.
+     */
+    TINY_LFU {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new TinyLfu(settings.ticker);
+        }
+    },
+
+    /**
+     * CLOCK, or second chance. A read only sets a reference bit, without taking any lock, values are evicted in
+     * insertion order, except those referenced since last sweep.
+     */
+    CLOCK {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new Clock(settings.ticker);
+        }
+    },
+
+    /**
+     * GreedyDual-Size-Frequency, for values of mixed sizes. Weighs frequency and recency against the size of value,
+     * small values are kept over large ones, to maximize the ratio of hits to requests.
+     */
+    GREEDY_DUAL_SIZE {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new GreedyDualSize(false);
+        }
+    },
+
+    /**
+     * GreedyDual-Size-Frequency, to maximize the ratio of bytes hit to bytes requested. The size of value is not
+     * counted against it, values are evicted by frequency with aging.
+     */
+    GREEDY_DUAL_SIZE_BYTE_HIT {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new GreedyDualSize(true);
+        }
+    },
+
+    /**
+     * Approximated LRU by sampling, as redis does. A read only records its time in the value, without any lock or
+     * list. The victim is the least recently read of a few values sampled from random segments.
+     */
+    SAMPLED_LRU {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new Sampled(false, settings.ticker);
+        }
+
+        @Override
+        boolean sampled() {
+            return true;
+        }
+    },
+
+    /**
+     * Approximated LFU by sampling, as redis does. A read increases a logarithmic counter in the value, without
+     * any lock or list. The victim is the least frequently read of a few values sampled from random segments,
+     * counters of sampled values decay so old popularity fades.
+     */
+    SAMPLED_LFU {
+        @Override
+        Policy newPolicy(DirectCacheBuilder settings) {
+            return new Sampled(true, settings.ticker);
+        }
+
+        @Override
+        boolean sampled() {
+            return true;
+        }
+    };
+
+    /**
+     * create the policy of one map segment
+     */
+    abstract Policy newPolicy(DirectCacheBuilder settings);
+
+    /**
+     * if victims are chosen by sampling the map, instead of enumerated from policy
+     */
+    boolean sampled() {
+        return false;
+    }
+}
@@ -0,0 +1,56 @@
+package net.dongliu.direct;
+
+import java.util.List;
+
+/**
+ * Custom eviction policy of a cache, for policies not provided by {@link Eviction}.
+ * Set by {@link DirectCacheBuilder#evictionPolicy(EvictionPolicy)}, one instance serves one cache, for all its entries.
+ * <p>
+ * Methods are called concurrently: onInsert and onRemove under the write lock of the map segment holding the entry,
+ * onAccess by lock-free readers, victims by writers and the evictor when memory is needed.
+ * Implementations must be thread-safe, and should keep onAccess cheap, it is on the read path.
+ * Entries have identity semantics, and can be keys of hash maps.
+ * </p>
+ *
+ * @author Dong Liu
+ */
+public interface EvictionPolicy {
+
+    /**
+     * A cache entry seen by policy.
+     */
+    interface Entry {
+
+        /**
+         * the off-heap memory held by this entry, in bytes
+         */
+        int capacity();
+
+        /**
+         * the hash of key. entries of the same key have the same hash.
+         */
+        int keyHash();
+    }
+
+    /**
+     * an entry is put into cache
+     */
+    void onInsert(Entry entry);
+
+    /**
+     * an entry is removed from cache, by eviction, expiry, replacement or explicit remove.
+     * do nothing if the entry is unknown.
+     */
+    void onRemove(Entry entry);
+
+    /**
+     * an entry is read. may be called after the entry has been removed.
+     */
+    void onAccess(Entry entry);
+
+    /**
+     * choose entries to evict, in eviction order, until their capacity reaches bytes, or num entries chosen.
+     * The cache removes chosen entries, and calls onRemove for each one.
+     */
+    List<? extends Entry> victims(long bytes, int num);
+}
@@ -0,0 +1,78 @@
+package net.dongliu.direct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background evictor. Once used memory exceeds the high watermark, evict the coldest values until used memory
+ * drops to the low watermark. Writers wake it up when they see used memory above the high watermark, it also
+ * checks periodically in case of a missed wake up.
+ *
+ * @author Dong Liu
+ */
+class Evictor implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Evictor.class);
+
+    /**
+     * max time to park between checks
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final DirectCache cache;
+    private final long lowWatermark;
+    private final long highWatermark;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    Evictor(DirectCache cache, long lowWatermark, long highWatermark) {
+        this.cache = cache;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.thread = new Thread(this, "direct-cache-evictor");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * called by writers after allocation, wake up the evictor if used memory exceeds the high watermark
+     */
+    void check(long used) {
+        if (used > highWatermark) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                long used = cache.allocator().getUsed().get();
+                if (used > highWatermark) {
+                    evictToLowWatermark(used);
+                }
+            } catch (Throwable e) {
+                logger.warn("Background eviction failed", e);
+            }
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+
+    private void evictToLowWatermark(long used) {
+        while (running && used > lowWatermark && cache.evict(used - lowWatermark)) {
+            used = cache.allocator().getUsed().get();
+        }
+    }
+}
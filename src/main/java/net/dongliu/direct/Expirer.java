@@ -0,0 +1,57 @@
+package net.dongliu.direct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background thread advancing the timer wheels of map segments, removes expired values periodically.
+ *
+ * @author Dong Liu
+ */
+class Expirer implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Expirer.class);
+
+    /**
+     * the interval of advancing wheels, about the span of a level 0 bucket
+     */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    private final DirectCache cache;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    Expirer(DirectCache cache) {
+        this.cache = cache;
+        this.thread = new Thread(this, "direct-cache-expirer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            LockSupport.parkNanos(this, TICK_NANOS);
+            if (!running) {
+                return;
+            }
+            try {
+                cache.expire();
+            } catch (Throwable e) {
+                logger.warn("Background expiry failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package net.dongliu.direct;
+
+/**
+ * Computes the time to live of each entry, for values set or added without an explicit expiry.
+ * Set by {@link DirectCacheBuilder#expiry(Expiry)}. Durations are in nanoseconds, use
+ * {@link java.util.concurrent.TimeUnit} to convert; the cache keeps millisecond precision, and positive durations
+ * shorter than one millisecond live for one millisecond. Return 0 or {@link #NEVER} if the entry never expires.
+ * Methods are called by cache threads, and should be fast and not block.
+ *
+ * @author Dong Liu
+ */
+public interface Expiry {
+
+    /**
+     * the entry never expires
+     */
+    long NEVER = Long.MAX_VALUE;
+
+    /**
+     * the time to live of a new entry
+     *
+     * @param size the serialized size of value in bytes
+     */
+    long expireAfterCreate(Object key, Object value, int size);
+
+    /**
+     * the time to live of an entry after its value replaced
+     *
+     * @param size            the serialized size of the new value in bytes
+     * @param currentDuration the remaining time to live of the entry, return it to keep current expiry
+     */
+    long expireAfterUpdate(Object key, Object value, int size, long currentDuration);
+
+    /**
+     * the time to live of an entry after read. Called without lock, the result may race with other readers.
+     *
+     * @param size            the serialized size of value in bytes
+     * @param currentDuration the remaining time to live of the entry, return it to keep current expiry
+     */
+    long expireAfterRead(Object key, int size, long currentDuration);
+
+    /**
+     * Expiry not changed by reads. Cache does not call expireAfterRead, so reads do not deserialize the key.
+     */
+    abstract class AfterWrite implements Expiry {
+
+        @Override
+        public final long expireAfterRead(Object key, int size, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
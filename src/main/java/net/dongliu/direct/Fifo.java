@@ -0,0 +1,90 @@
+package net.dongliu.direct;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * First in, first out. Values are evicted in insertion order, reads do nothing.
+ *
+ * @author Dong Liu
+ */
+class Fifo implements Policy {
+
+    private static final byte FIFO = 1;
+
+    private final ValueList list = new ValueList(FIFO);
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Ticker ticker;
+
+    Fifo(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    @Override
+    public void insert(DirectValue value) {
+        value.setRank((int) ticker.read());
+        lock.lock();
+        try {
+            list.addFirst(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(DirectValue value) {
+        lock.lock();
+        try {
+            if (list.contains(value)) {
+                list.remove(value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void replace(DirectValue oldValue, DirectValue value) {
+        remove(oldValue);
+        insert(value);
+    }
+
+    @Override
+    public void access(DirectValue value) {
+    }
+
+    @Override
+    public DirectValue evictNext(DirectValue value) {
+        lock.lock();
+        try {
+            if (value == null) {
+                return list.tail();
+            }
+            return list.contains(value) ? value.precursor : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<DirectValue> tails(long bytes, int num) {
+        List<DirectValue> values = new ArrayList<>(Math.min(num, 16));
+        long got = 0;
+        lock.lock();
+        try {
+            DirectValue value = list.tail();
+            while (value != null && got < bytes && values.size() < num) {
+                values.add(value);
+                got += value.capacity();
+                value = value.precursor;
+            }
+            return values;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package net.dongliu.direct;
+
+/**
+ * Count-min sketch to estimate the access frequency of values, with 4-bit counters, four counters for each hash.
+ * When the number of increments reaches ten times of the capacity, all counters are halved, so the popularity
+ * of history ages out. Not thread-safe.
+ *
+ * @author Dong Liu
+ */
+class FrequencySketch {
+
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /**
+     * counters, each long holds sixteen 4-bit counters
+     */
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    FrequencySketch(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * enlarge the sketch to count capacity values accurately. counts are kept if enlarged: a counter of hash is
+     * indexed by the low bits of hash, so each new slot starts with the old slot sharing its low bits. A count may
+     * be over-estimated until aged out by halving, as the old slot was shared by more hashes.
+     */
+    void ensureCapacity(int capacity) {
+        int maximum = Math.min(Math.max(capacity, 16), 1 << 30);
+        if (table != null && table.length >= maximum) {
+            return;
+        }
+        int length = 1;
+        while (length < maximum) {
+            length <<= 1;
+        }
+        long[] old = table;
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = maximum > Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : maximum * 10;
+        if (old != null) {
+            int oldMask = old.length - 1;
+            for (int i = 0; i < length; i++) {
+                table[i] = old[i & oldMask];
+            }
+        }
+    }
+
+    /**
+     * the estimated frequency, 0 - 15
+     */
+    int frequency(int hash) {
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * increment the j-th counter of table[i], if not saturated
+     */
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((table[i] & mask) != mask) {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * halve all counters
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += hash >>> 32;
+        return ((int) hash) & tableMask;
+    }
+}
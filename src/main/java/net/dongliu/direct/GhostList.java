@@ -0,0 +1,166 @@
+package net.dongliu.direct;
+
+import java.util.Arrays;
+
+/**
+ * Set of int hashes in insertion order, oldest first, for the ghost lists of ARC. Hashes are kept in a ring, and an
+ * open addressing table maps each hash to its ring slot, so nothing is boxed. A removed hash leaves a hole in ring,
+ * skipped when the oldest is removed, and squeezed out when ring is full. Not thread-safe, used by policy under its
+ * lock.
+ *
+ * @author Dong Liu
+ */
+class GhostList {
+
+    private static final int MIN_LENGTH = 16;
+    private static final int EMPTY = -1;
+
+    /**
+     * hashes and holes, from head for used slots
+     */
+    private int[] ring;
+    private int head;
+    private int used;
+    private int size;
+
+    /**
+     * the hash table, twice the ring length. slots holds the ring slot of hash, EMPTY for free entries
+     */
+    private int[] keys;
+    private int[] slots;
+
+    GhostList() {
+        allocate(MIN_LENGTH);
+    }
+
+    private void allocate(int length) {
+        ring = new int[length];
+        head = 0;
+        used = 0;
+        keys = new int[length * 2];
+        slots = new int[length * 2];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int hash) {
+        return indexOf(hash) >= 0;
+    }
+
+    /**
+     * add hash as the newest, do nothing if already in
+     */
+    void add(int hash) {
+        if (contains(hash)) {
+            return;
+        }
+        if (used == ring.length) {
+            grow();
+        }
+        int slot = (head + used) & (ring.length - 1);
+        ring[slot] = hash;
+        used++;
+        put(hash, slot);
+        size++;
+    }
+
+    /**
+     * @return false if hash is not in
+     */
+    boolean remove(int hash) {
+        int index = indexOf(hash);
+        if (index < 0) {
+            return false;
+        }
+        delete(index);
+        size--;
+        return true;
+    }
+
+    void removeOldest() {
+        while (size > 0) {
+            int slot = head;
+            int hash = ring[slot];
+            head = (head + 1) & (ring.length - 1);
+            used--;
+            // a hole, or the hash was removed and added again at a newer slot
+            int index = indexOf(hash);
+            if (index >= 0 && slots[index] == slot) {
+                delete(index);
+                size--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * copy the hashes in order to a new ring, at least twice the size
+     */
+    private void grow() {
+        int[] hashes = new int[size];
+        int n = 0;
+        int mask = ring.length - 1;
+        for (int i = 0; i < used; i++) {
+            int slot = (head + i) & mask;
+            int index = indexOf(ring[slot]);
+            if (index >= 0 && slots[index] == slot) {
+                hashes[n++] = ring[slot];
+            }
+        }
+        allocate(Math.max(MIN_LENGTH, Integer.highestOneBit(size) << 2));
+        for (int hash : hashes) {
+            int slot = used++;
+            ring[slot] = hash;
+            put(hash, slot);
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private int indexOf(int hash) {
+        int mask = keys.length - 1;
+        for (int i = spread(hash) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == hash) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void put(int hash, int slot) {
+        int mask = keys.length - 1;
+        int i = spread(hash) & mask;
+        while (slots[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = hash;
+        slots[i] = slot;
+    }
+
+    /**
+     * free the table entry, and shift back the entries after it which probed past it
+     */
+    private void delete(int index) {
+        int mask = keys.length - 1;
+        int hole = index;
+        slots[hole] = EMPTY;
+        for (int i = (hole + 1) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+            int home = spread(keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                slots[hole] = slots[i];
+                slots[i] = EMPTY;
+                hole = i;
+            }
+        }
+    }
+}
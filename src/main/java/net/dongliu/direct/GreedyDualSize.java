@@ -0,0 +1,143 @@
+package net.dongliu.direct;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * GreedyDual-Size-Frequency policy. Each value has a priority of L + frequency * cost / capacity, the value of
+ * lowest priority is evicted first, and L is raised to the priority of the evicted value, so values not read for
+ * long age out. Frequency is estimated by a count-min sketch.
+ * <p>
+ * For object hit ratio the cost is 1, small values are kept over large ones. For byte hit ratio the cost is
+ * the capacity, so the size is not counted, and the policy is lfu with aging.
+ * </p>
+ *
+ * @author Dong Liu
+ */
+class GreedyDualSize implements Policy {
+
+    /**
+     * priority weight of one access for object hit ratio, divided by capacity
+     */
+    private static final int OBJECT_SCALE = 1 << 24;
+    /**
+     * priority weight of one access for byte hit ratio
+     */
+    private static final int BYTE_SCALE = 1 << 10;
+
+    private final boolean byteHit;
+
+    private final ValueHeap heap = new ValueHeap();
+    private final FrequencySketch sketch = new FrequencySketch(16);
+
+    /**
+     * the L value, priority of last evicted value
+     */
+    private int inflation;
+
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * @param byteHit maximize byte hit ratio if true, object hit ratio otherwise
+     */
+    GreedyDualSize(boolean byteHit) {
+        this.byteHit = byteHit;
+    }
+
+    @Override
+    public void insert(DirectValue value) {
+        lock.lock();
+        try {
+            sketch.ensureCapacity(heap.size() + 1);
+            sketch.increment(value.hash());
+            value.setRank(priority(value));
+            heap.add(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(DirectValue value) {
+        lock.lock();
+        try {
+            if (!heap.contains(value)) {
+                return;
+            }
+            if (value == heap.peek()) {
+                // mostly evicted, the policy has no way to tell eviction from other removes
+                inflation = value.getRank();
+            }
+            heap.remove(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove the old value without taking its priority as inflation, it is not evicted
+     */
+    @Override
+    public void replace(DirectValue oldValue, DirectValue value) {
+        lock.lock();
+        try {
+            if (heap.contains(oldValue)) {
+                heap.remove(oldValue);
+            }
+        } finally {
+            lock.unlock();
+        }
+        insert(value);
+    }
+
+    /**
+     * record the read and raise the priority. reads are lossy: skipped if the lock is held by other thread,
+     * so readers never wait.
+     */
+    @Override
+    public void access(DirectValue value) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (!heap.contains(value)) {
+                return;
+            }
+            sketch.increment(value.hash());
+            value.setRank(priority(value));
+            heap.update(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * call only while holding lock
+     */
+    private int priority(DirectValue value) {
+        long frequency = sketch.frequency(value.hash()) + 1;
+        long weight = byteHit ? frequency * BYTE_SCALE : frequency * OBJECT_SCALE / Math.max(value.capacity(), 1);
+        return inflation + (int) weight;
+    }
+
+    @Override
+    public DirectValue evictNext(DirectValue value) {
+        lock.lock();
+        try {
+            return heap.next(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<DirectValue> tails(long bytes, int num) {
+        lock.lock();
+        try {
+            return heap.lowest(bytes, num);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
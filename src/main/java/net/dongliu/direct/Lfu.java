@@ -0,0 +1,90 @@
+package net.dongliu.direct;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Least frequently used. The rank of value is the count of its reads since inserted, the value of lowest count
+ * is evicted first. There is no aging, values read often long ago stay.
+ *
+ * @author Dong Liu
+ */
+class Lfu implements Policy {
+
+    /**
+     * counts saturate here, so the difference of two counts never overflows
+     */
+    private static final int MAX_COUNT = 1 << 30;
+
+    private final ValueHeap heap = new ValueHeap();
+
+    private final Lock lock = new ReentrantLock();
+
+    @Override
+    public void insert(DirectValue value) {
+        value.setRank(1);
+        lock.lock();
+        try {
+            heap.add(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(DirectValue value) {
+        lock.lock();
+        try {
+            if (heap.contains(value)) {
+                heap.remove(value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void replace(DirectValue oldValue, DirectValue value) {
+        remove(oldValue);
+        insert(value);
+    }
+
+    /**
+     * count the read. reads are lossy: skipped if the lock is held by other thread, so readers never wait.
+     */
+    @Override
+    public void access(DirectValue value) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (heap.contains(value) && value.getRank() < MAX_COUNT) {
+                value.setRank(value.getRank() + 1);
+                heap.update(value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public DirectValue evictNext(DirectValue value) {
+        lock.lock();
+        try {
+            return heap.next(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<DirectValue> tails(long bytes, int num) {
+        lock.lock();
+        try {
+            return heap.lowest(bytes, num);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package net.dongliu.direct;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LRU, direct-memory cache with primitive long keys. Keys are kept in long arrays of the map segments,
+ * lookups do not box the key.
+ *
+ * @author Dong Liu
+ */
+public class LongDirectCache {
+
+    private final DirectCache cache;
+
+    LongDirectCache(DirectCacheBuilder builder) {
+        cache = new DirectCache(builder, true);
+    }
+
+    /**
+     * retrieve node by key from cache.
+     *
+     * @return null if not exists.
+     */
+    public <V> Value<V> get(long key, Class<V> clazz) {
+        return cache.get(null, key, clazz);
+    }
+
+    /**
+     * set a value.if already exist, replace it. the value expires by the {@link Expiry} of cache if set,
+     * never expires otherwise.
+     *
+     * @param value cannot be null
+     */
+    public <V> void set(long key, V value) {
+        cache.set(null, key, value, DirectCache.DEFAULT_EXPIRY, cache.expireAfterAccess());
+    }
+
+    /**
+     * set a value. if already exist, replace it
+     *
+     * @param expiry The amount of time for the element to live, in seconds. 0 indicates unlimited.
+     * @param value  cannot be null
+     */
+    public <V> void set(long key, V value, int expiry) {
+        set(key, value, expiry, TimeUnit.SECONDS);
+    }
+
+    /**
+     * set a value. if already exist, replace it
+     *
+     * @param duration The amount of time for the element to live, 0 indicates unlimited. Precision is millisecond.
+     * @param value    cannot be null
+     */
+    public <V> void set(long key, V value, long duration, TimeUnit unit) {
+        set(key, value, duration, unit, cache.expireAfterAccess());
+    }
+
+    /**
+     * set a value. if already exist, replace it
+     *
+     * @param expiry      The amount of time for the element to live, in seconds. 0 indicates unlimited.
+     * @param afterAccess if the element lives for expiry after last read, instead of after set
+     */
+    public <V> void set(long key, V value, int expiry, boolean afterAccess) {
+        set(key, value, expiry, TimeUnit.SECONDS, afterAccess);
+    }
+
+    /**
+     * set a value. if already exist, replace it
+     *
+     * @param duration    The amount of time for the element to live, 0 indicates unlimited.
+     * @param afterAccess if the element lives for duration after last read, instead of after set
+     */
+    public <V> void set(long key, V value, long duration, TimeUnit unit, boolean afterAccess) {
+        cache.set(null, key, value, DirectCache.toMillis(duration, unit), afterAccess);
+    }
+
+    /**
+     * Put an element in the store only if no element is currently mapped to the elements key.
+     * the value expires by the {@link Expiry} of cache if set, never expires otherwise.
+     *
+     * @return true if the key is not in cache(even if put op is failed), false otherwise.
+     */
+    public <V> boolean add(long key, V value) {
+        return cache.add(null, key, value, DirectCache.DEFAULT_EXPIRY, cache.expireAfterAccess());
+    }
+
+    /**
+     * Put an element in the store only if no element is currently mapped to the elements key.
+     *
+     * @param expiry The amount of time for the element to live, in seconds. 0 indicates unlimited.
+     * @return true if the key is not in cache(even if put op is failed), false otherwise.
+     */
+    public <V> boolean add(long key, V value, int expiry) {
+        return add(key, value, expiry, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Put an element in the store only if no element is currently mapped to the elements key.
+     *
+     * @param duration The amount of time for the element to live, 0 indicates unlimited. Precision is millisecond.
+     * @return true if the key is not in cache(even if put op is failed), false otherwise.
+     */
+    public <V> boolean add(long key, V value, long duration, TimeUnit unit) {
+        return add(key, value, duration, unit, cache.expireAfterAccess());
+    }
+
+    /**
+     * Put an element in the store only if no element is currently mapped to the elements key.
+     *
+     * @param expiry      The amount of time for the element to live, in seconds. 0 indicates unlimited.
+     * @param afterAccess if the element lives for expiry after last read, instead of after add
+     * @return true if the key is not in cache(even if put op is failed), false otherwise.
+     */
+    public <V> boolean add(long key, V value, int expiry, boolean afterAccess) {
+        return add(key, value, expiry, TimeUnit.SECONDS, afterAccess);
+    }
+
+    /**
+     * Put an element in the store only if no element is currently mapped to the elements key.
+     *
+     * @param duration    The amount of time for the element to live, 0 indicates unlimited.
+     * @param afterAccess if the element lives for duration after last read, instead of after add
+     * @return true if the key is not in cache(even if put op is failed), false otherwise.
+     */
+    public <V> boolean add(long key, V value, long duration, TimeUnit unit, boolean afterAccess) {
+        return cache.add(null, key, value, DirectCache.toMillis(duration, unit), afterAccess);
+    }
+
+    /**
+     * remove key from cache
+     */
+    public void remove(long key) {
+        cache.remove(null, key);
+    }
+
+    /**
+     * to see weather the key exists or not.if the entry is expired still return true.
+     *
+     * @return true if key exists.
+     */
+    public boolean exists(long key) {
+        return cache.exists(null, key);
+    }
+
+    /**
+     * return all keys cached.
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<Long> keys() {
+        return (Collection<Long>) cache.keys();
+    }
+
+    /**
+     * the num of cache entries.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * return the actualUsed off-heap memory in bytes.
+     */
+    public long offHeapSize() {
+        return cache.offHeapSize();
+    }
+
+    public void destroy() {
+        cache.destroy();
+    }
+}
@@ -6,39 +6,56 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * lru impl with deque
+ * lru impl with deque. Reads are recorded in a {@link ReadBuffer} without lock, and applied to the deque in batch
+ * by the reader who gets the lock, or before choosing victims.
  *
  * @author Dong Liu dongliu@wandoujia.com
  */
-class Lru {
+class Lru implements Policy {
 
     private DirectValue head;
     private DirectValue tail;
 
     private Lock lock = new ReentrantLock();
 
+    private final ReadBuffer readBuffer = new ReadBuffer();
+
+    private final ReadBuffer.Consumer promoter = new ReadBuffer.Consumer() {
+        @Override
+        public void accept(DirectValue value) {
+            promote(value);
+        }
+    };
+
     /**
-     * after promoteDelta ms do next promote
+     * reads within promoteDelta ms after last promote are not recorded. 0 to record every read.
      */
-    private static final long DEFAULT_PROMOTE_DELTA = 10_000;
-
     public final long promoteDelta;
 
+    private final Ticker ticker;
+
     Lru() {
-        this(DEFAULT_PROMOTE_DELTA);
+        this(Ticker.system(), 0);
     }
 
     Lru(long promoteDelta) {
+        this(Ticker.system(), promoteDelta);
+    }
+
+    Lru(Ticker ticker, long promoteDelta) {
+        this.ticker = ticker;
         this.promoteDelta = promoteDelta;
     }
 
     /**
      * insert one DirectValue
      */
-    void insert(DirectValue value) {
-        value.setLastPromoted(System.currentTimeMillis());
+    @Override
+    public void insert(DirectValue value) {
+        value.setRank((int) ticker.read());
         lock.lock();
         try {
+            drainReads();
             if (head == null) {
                 head = tail = value;
             } else {
@@ -52,12 +69,15 @@ class Lru {
     }
 
     /**
-     * remove one DirectValue
+     * remove one DirectValue. do nothing if it is not in list.
      */
-    void remove(DirectValue DirectValue) {
+    @Override
+    public void remove(DirectValue DirectValue) {
         lock.lock();
         try {
-            //head must not be null
+            if (!contains(DirectValue)) {
+                return;
+            }
             if (DirectValue == head) {
                 head = DirectValue.successor;
                 if (DirectValue == tail) {
@@ -72,52 +92,122 @@ class Lru {
                 DirectValue.successor.precursor = DirectValue.precursor;
                 DirectValue.precursor.successor = DirectValue.successor;
             }
+            DirectValue.successor = null;
+            DirectValue.precursor = null;
         } finally {
             lock.unlock();
         }
     }
 
+    @Override
+    public void replace(DirectValue oldValue, DirectValue value) {
+        remove(oldValue);
+        insert(value);
+    }
+
     /**
-     * move DirectValue to head
+     * record the read, the value is moved to head when reads are drained. may be called by lock-free readers
+     * after the value has been removed, then do nothing.
      */
-    void promoted(DirectValue DirectValue) {
-        long now = System.currentTimeMillis();
-        long last = DirectValue.getLastPromoted();
-        if (now < last + promoteDelta) {
-            return;
+    @Override
+    public void access(DirectValue value) {
+        if (promoteDelta > 0) {
+            // truncated to int, compare by difference
+            int now = (int) ticker.read();
+            if (now - value.getRank() < promoteDelta) {
+                return;
+            }
         }
-
-        if (DirectValue.compareAndSetLastPromoted(last, now)) {
-            lock.lock();
+        if (readBuffer.offer(value) && lock.tryLock()) {
             try {
-                if (DirectValue == head) {
-                    return;
-                }
-                head.precursor = DirectValue;
-                DirectValue.precursor.successor = DirectValue.successor;
-                if (DirectValue.successor != null) {
-                    DirectValue.successor.precursor = DirectValue.precursor;
-                }
-                DirectValue.successor = head;
-                DirectValue.precursor = null;
-                head = DirectValue;
+                drainReads();
             } finally {
                 lock.unlock();
             }
         }
+    }
 
+    /**
+     * apply recorded reads. call only while holding lock.
+     */
+    private void drainReads() {
+        readBuffer.drain(promoter);
     }
 
     /**
-     * evict num DirectValue from list tail
+     * move value to head. call only while holding lock.
+     */
+    private void promote(DirectValue value) {
+        if (!contains(value)) {
+            return;
+        }
+        value.setRank((int) ticker.read());
+        if (value == head) {
+            return;
+        }
+        if (value == tail) {
+            tail = value.precursor;
+        }
+        head.precursor = value;
+        value.precursor.successor = value.successor;
+        if (value.successor != null) {
+            value.successor.precursor = value.precursor;
+        }
+        value.successor = head;
+        value.precursor = null;
+        head = value;
+    }
+
+    /**
+     * if value is linked in this list. call only while holding lock.
+     * every node but head has a precursor, removed nodes have neither.
+     */
+    private boolean contains(DirectValue DirectValue) {
+        return DirectValue == head || DirectValue.precursor != null;
+    }
+
+    /**
+     * the value to evict after the given one, that is, its precursor.
+     *
+     * @param value the value last chosen, or null to get the tail
+     * @return null if there is no more value, or the given value has been removed
+     */
+    @Override
+    public DirectValue evictNext(DirectValue value) {
+        lock.lock();
+        try {
+            if (value == null) {
+                drainReads();
+                return tail;
+            }
+            return contains(value) ? value.precursor : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * get at most num DirectValue from list tail
      */
     List<DirectValue> tails(int num) {
-        List<DirectValue> list = new ArrayList<>(num);
+        return tails(Long.MAX_VALUE, num);
+    }
+
+    /**
+     * get DirectValues from list tail, until their capacity reaches bytes, or num values got.
+     * the list is walked only as far as needed, so the cost is proportional to the space to reclaim.
+     */
+    @Override
+    public List<DirectValue> tails(long bytes, int num) {
+        List<DirectValue> list = new ArrayList<>(Math.min(num, 16));
+        long got = 0;
         lock.lock();
         try {
+            drainReads();
             DirectValue DirectValue = tail;
-            while (DirectValue != null) {
+            while (DirectValue != null && got < bytes && list.size() < num) {
                 list.add(DirectValue);
+                got += DirectValue.capacity();
                 DirectValue = DirectValue.precursor;
             }
             return list;
@@ -126,12 +216,27 @@ class Lru {
         }
     }
 
+    /**
+     * the head, after recorded reads are applied
+     */
     DirectValue getHead() {
-        return head;
+        lock.lock();
+        try {
+            drainReads();
+            return head;
+        } finally {
+            lock.unlock();
+        }
     }
 
     DirectValue getTail() {
-        return tail;
+        lock.lock();
+        try {
+            drainReads();
+            return tail;
+        } finally {
+            lock.unlock();
+        }
     }
 
 }
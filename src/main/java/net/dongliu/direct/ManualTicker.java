@@ -0,0 +1,40 @@
+package net.dongliu.direct;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticker advanced by hand, for tests to control time of cache deterministically.
+ *
+ * @author Dong Liu
+ */
+public class ManualTicker extends Ticker {
+
+    private volatile long time;
+
+    /**
+     * start at time 0
+     */
+    public ManualTicker() {
+    }
+
+    public ManualTicker(long time) {
+        this.time = time;
+    }
+
+    @Override
+    public long read() {
+        return time;
+    }
+
+    /**
+     * move time forward
+     */
+    public synchronized ManualTicker advance(long duration, TimeUnit unit) {
+        time += unit.toMillis(duration);
+        return this;
+    }
+
+    public void set(long time) {
+        this.time = time;
+    }
+}
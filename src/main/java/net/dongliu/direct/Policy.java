@@ -0,0 +1,58 @@
+package net.dongliu.direct;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Eviction policy of one map segment, decides which values to evict when memory is needed.
+ * insert and remove are called under the segment write lock, access is called by lock-free readers.
+ *
+ * @author Dong Liu
+ */
+interface Policy {
+
+    /**
+     * compare by rank, the lower rank first. used to merge the eviction order of segments.
+     */
+    Comparator<DirectValue> COLDEST_FIRST = new Comparator<DirectValue>() {
+        @Override
+        public int compare(DirectValue o1, DirectValue o2) {
+            int delta = o1.getRank() - o2.getRank();
+            return delta < 0 ? -1 : (delta == 0 ? 0 : 1);
+        }
+    };
+
+    /**
+     * a value is put into segment
+     */
+    void insert(DirectValue value);
+
+    /**
+     * a value is removed from segment. do nothing if it is not in policy.
+     */
+    void remove(DirectValue value);
+
+    /**
+     * a value is replaced by a new value of the same key, which is not an eviction. called under the segment write
+     * lock.
+     */
+    void replace(DirectValue oldValue, DirectValue value);
+
+    /**
+     * a value is read. may be called after the value has been removed, then do nothing.
+     */
+    void access(DirectValue value);
+
+    /**
+     * the value to evict after the given one.
+     *
+     * @param value the value last chosen, or null to get the first one
+     * @return null if there is no more value, or the given value has been removed
+     */
+    DirectValue evictNext(DirectValue value);
+
+    /**
+     * get values to evict, until their capacity reaches bytes, or num values got.
+     */
+    List<DirectValue> tails(long bytes, int num);
+}
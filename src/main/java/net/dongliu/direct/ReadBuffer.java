@@ -0,0 +1,92 @@
+package net.dongliu.direct;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Striped, lossy ring buffers of reads. Readers append values to the stripe of their thread without lock, a read is
+ * dropped if the stripe is full or a racing reader wins the slot. The policy drains all stripes in batch, under its
+ * lock, so a hit costs only a buffer write, and the policy lock is taken once per batch of reads.
+ *
+ * @author Dong Liu
+ */
+class ReadBuffer {
+
+    private static final int STRIPES = 4;
+    private static final int STRIPE_MASK = STRIPES - 1;
+
+    /**
+     * the capacity of one stripe, power of two
+     */
+    private static final int SIZE = 16;
+    private static final int MASK = SIZE - 1;
+
+    /**
+     * readers ask for a drain once a stripe has so many pending reads
+     */
+    private static final int DRAIN_THRESHOLD = SIZE / 2;
+
+    /**
+     * handles the drained reads
+     */
+    interface Consumer {
+        void accept(DirectValue value);
+    }
+
+    private static final class Stripe {
+        final AtomicReferenceArray<DirectValue> buffer = new AtomicReferenceArray<>(SIZE);
+        final AtomicLong writes = new AtomicLong();
+        /**
+         * only written by the drainer
+         */
+        volatile long reads;
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    ReadBuffer() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * record a read, may be dropped.
+     *
+     * @return true if the buffer should be drained
+     */
+    boolean offer(DirectValue value) {
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & STRIPE_MASK];
+        long tail = stripe.writes.get();
+        long size = tail - stripe.reads;
+        if (size >= SIZE) {
+            return true;
+        }
+        if (stripe.writes.compareAndSet(tail, tail + 1)) {
+            stripe.buffer.lazySet((int) tail & MASK, value);
+            return size + 1 >= DRAIN_THRESHOLD;
+        }
+        return false;
+    }
+
+    /**
+     * pass the recorded reads to consumer, in order of each stripe. call only while holding the policy lock.
+     */
+    void drain(Consumer consumer) {
+        for (Stripe stripe : stripes) {
+            long head = stripe.reads;
+            long tail = stripe.writes.get();
+            for (; head < tail; head++) {
+                int index = (int) head & MASK;
+                DirectValue value = stripe.buffer.get(index);
+                if (value == null) {
+                    // slot claimed, but value not written yet
+                    break;
+                }
+                stripe.buffer.lazySet(index, null);
+                consumer.accept(value);
+            }
+            stripe.reads = head;
+        }
+    }
+}
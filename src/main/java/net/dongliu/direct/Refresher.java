@@ -0,0 +1,110 @@
+package net.dongliu.direct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reloads entries read after their refresh time, by executor. At most one reload runs for a key, readers keep
+ * getting the current value meanwhile.
+ *
+ * @author Dong Liu
+ */
+class Refresher {
+
+    private static final Logger logger = LoggerFactory.getLogger(Refresher.class);
+
+    private final DirectCache cache;
+    private final CacheLoader loader;
+    /**
+     * entries written longer than this ago are refreshed when read, in ms
+     */
+    private final long refreshAfter;
+    private final Executor executor;
+    /**
+     * if executor is created by refresher, and should be shutdown with cache
+     */
+    private final boolean ownExecutor;
+    /**
+     * keys being reloaded, the map key or the long key boxed
+     */
+    private final ConcurrentHashMap<Object, Boolean> loading = new ConcurrentHashMap<>();
+
+    /**
+     * @param executor the executor to reload by, null to use daemon threads owned by refresher
+     */
+    Refresher(DirectCache cache, CacheLoader loader, long refreshAfter, Executor executor) {
+        this.cache = cache;
+        this.loader = loader;
+        this.refreshAfter = refreshAfter;
+        this.ownExecutor = executor == null;
+        this.executor = executor != null ? executor : Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "direct-cache-refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * a read of value at now, start a reload if the value is due to refresh and no reload of key is running.
+     *
+     * @param key     the key in map, null if map use long keys
+     * @param longKey the long key
+     */
+    void read(final Object key, final long longKey, final TimedValue value, long now) {
+        if (now - value.writeTime() < refreshAfter) {
+            return;
+        }
+        final Object loadingKey = key == null ? Long.valueOf(longKey) : key;
+        if (loading.putIfAbsent(loadingKey, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        reload(key, longKey, value);
+                    } finally {
+                        loading.remove(loadingKey);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(loadingKey);
+            logger.warn("Refresh rejected by executor", e);
+        }
+    }
+
+    private void reload(Object key, long longKey, DirectValue old) {
+        Object value;
+        try {
+            value = loader.load(cache.userKey(key, longKey));
+        } catch (Throwable e) {
+            logger.warn("Refresh failed, keep the current value", e);
+            return;
+        }
+        if (value != null) {
+            cache.replace(key, longKey, old, value);
+        }
+    }
+
+    /**
+     * shutdown the executor if it is owned by refresher
+     */
+    void shutdown() {
+        if (ownExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package net.dongliu.direct;
+
+/**
+ * Why an entry was removed from cache.
+ *
+ * @author Dong Liu
+ */
+public enum RemovalCause {
+    /**
+     * removed by user
+     */
+    EXPLICIT,
+    /**
+     * replaced by a set of the same key
+     */
+    REPLACED,
+    /**
+     * expired
+     */
+    EXPIRED,
+    /**
+     * evicted by the eviction policy, to reclaim memory
+     */
+    EVICTED
+}
@@ -0,0 +1,21 @@
+package net.dongliu.direct;
+
+/**
+ * Listens to removal of cache entries. Set by {@link DirectCacheBuilder#removalListener(RemovalListener)}.
+ * <p>
+ * Notifications are delivered asynchronously by an executor, never under the lock of cache, in the order of
+ * removal for one key. The value is not delivered: its off-heap memory is released when removed. Notifications
+ * are queued in a bounded queue, and dropped if the listener falls too far behind. Entries removed by
+ * {@link DirectCache#destroy()} are not notified.
+ * </p>
+ *
+ * @author Dong Liu
+ */
+public interface RemovalListener {
+
+    /**
+     * @param key   the key of removed entry. A Long for {@link LongDirectCache}
+     * @param cause why the entry was removed
+     */
+    void onRemoval(Object key, RemovalCause cause);
+}
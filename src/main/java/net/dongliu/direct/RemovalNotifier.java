@@ -0,0 +1,188 @@
+package net.dongliu.direct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue removal notifications and deliver them to listener by executor. Map segments enqueue notifications under
+ * their lock, which never blocks; the cache calls {@link #dispatch()} after the lock is released, so listener never
+ * runs under the lock even with an executor running tasks in caller thread. One task drains the queue at a time.
+ *
+ * @author Dong Liu
+ */
+class RemovalNotifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemovalNotifier.class);
+
+    /**
+     * the max notifications queued
+     */
+    private static final int QUEUE_SIZE = 1 << 14;
+
+    private final DirectCache cache;
+    private final RemovalListener listener;
+    private final Executor executor;
+    /**
+     * if executor is created by notifier, and should be shutdown with cache
+     */
+    private final boolean ownExecutor;
+    private final BlockingQueue<Notification> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    /**
+     * removed entries with off-heap key, which key is read after segment lock is released
+     */
+    private final BlockingQueue<Notification> removedValues = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                drain();
+            } finally {
+                draining.set(false);
+            }
+            if (!queue.isEmpty()) {
+                dispatch();
+            }
+        }
+    };
+
+    /**
+     * @param executor the executor to deliver notifications, null to use a daemon thread owned by notifier
+     */
+    RemovalNotifier(DirectCache cache, RemovalListener listener, Executor executor) {
+        this.cache = cache;
+        this.listener = listener;
+        this.ownExecutor = executor == null;
+        this.executor = executor != null ? executor : Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "direct-cache-removal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * enqueue a notification, called under segment lock. dropped if queue is full.
+     *
+     * @param key     the key in map, or null if map use long keys
+     * @param longKey the long key
+     */
+    void removed(Object key, long longKey, RemovalCause cause) {
+        offer(new Notification(key, longKey, cause));
+    }
+
+    /**
+     * enqueue a removed entry which key is stored off-heap, called under segment lock. the value is retained, and key
+     * is read from buffer by {@link #dispatch()}. dropped and released at once if queue is full.
+     */
+    void removed(DirectValue value, RemovalCause cause) {
+        Notification notification = new Notification(null, 0, cause);
+        value.retain();
+        notification.value = value;
+        if (!removedValues.offer(notification)) {
+            notification.value = null;
+            value.release();
+            drop();
+        }
+    }
+
+    private void offer(Notification notification) {
+        if (!queue.offer(notification)) {
+            drop();
+        }
+    }
+
+    private void drop() {
+        if (dropped.incrementAndGet() % 1024 == 1) {
+            logger.warn("Removal listener falls behind, {} notifications dropped", dropped.get());
+        }
+    }
+
+    /**
+     * read keys of removed entries, and deliver queued notifications if no drain task is running. call without
+     * holding any segment lock.
+     */
+    void dispatch() {
+        Notification notification;
+        while ((notification = removedValues.poll()) != null) {
+            try {
+                notification.key = notification.value.getKey();
+            } finally {
+                notification.value.release();
+                notification.value = null;
+            }
+            offer(notification);
+        }
+        if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+            logger.warn("Removal notification rejected by executor", e);
+        }
+    }
+
+    private void drain() {
+        Notification notification;
+        while ((notification = queue.poll()) != null) {
+            try {
+                listener.onRemoval(cache.userKey(notification.key, notification.longKey), notification.cause);
+            } catch (Throwable e) {
+                logger.warn("Removal listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * release entries not dispatched, and shutdown the executor if it is owned by notifier
+     */
+    void shutdown() {
+        Notification notification;
+        while ((notification = removedValues.poll()) != null) {
+            notification.value.release();
+        }
+        if (ownExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    /**
+     * the number of notifications dropped since queue is full
+     */
+    long dropped() {
+        return dropped.get();
+    }
+
+    private static class Notification {
+        Object key;
+        /**
+         * the removed entry which key is not read yet
+         */
+        DirectValue value;
+        final long longKey;
+        final RemovalCause cause;
+
+        Notification(Object key, long longKey, RemovalCause cause) {
+            this.key = key;
+            this.longKey = longKey;
+            this.cause = cause;
+        }
+    }
+}
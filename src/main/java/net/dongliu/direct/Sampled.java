@@ -0,0 +1,104 @@
+package net.dongliu.direct;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sampled eviction, as redis does. The policy keeps no list and takes no lock, it only maintains the rank of values:
+ * the last access time, or a logarithmic access counter for lfu. Victims are chosen by the map, as the lowest ranked
+ * of a few values sampled from random segments, see {@link ConcurrentMap#sampledCandidates(long, int)}.
+ *
+ * @author Dong Liu
+ */
+class Sampled implements Policy {
+
+    /**
+     * the counter of a new value, so it is not evicted before it has a chance to be read
+     */
+    private static final int LFU_INIT = 5;
+    private static final int LFU_MAX = 255;
+    /**
+     * the larger, the more reads needed to increase counter once it is high
+     */
+    private static final int LFU_LOG_FACTOR = 10;
+    /**
+     * a sampled but not chosen value decays with probability 1 / LFU_DECAY_CHANCE.
+     * values are sampled several times per eviction, decay every time wipes out the counters of hot values.
+     */
+    private static final int LFU_DECAY_CHANCE = 64;
+
+    private final boolean lfu;
+
+    private final Ticker ticker;
+
+    /**
+     * @param lfu evict the least frequently read values, instead of the least recently read ones
+     */
+    Sampled(boolean lfu, Ticker ticker) {
+        this.lfu = lfu;
+        this.ticker = ticker;
+    }
+
+    @Override
+    public void insert(DirectValue value) {
+        value.setRank(lfu ? LFU_INIT : (int) ticker.read());
+    }
+
+    @Override
+    public void remove(DirectValue value) {
+    }
+
+    @Override
+    public void replace(DirectValue oldValue, DirectValue value) {
+        remove(oldValue);
+        insert(value);
+    }
+
+    @Override
+    public void access(DirectValue value) {
+        int rank = value.getRank();
+        if (!lfu) {
+            int now = (int) ticker.read();
+            // avoid dirty the cache line if read in the same millisecond
+            if (rank != now) {
+                value.setRank(now);
+            }
+            return;
+        }
+        if (rank >= LFU_MAX) {
+            return;
+        }
+        // increase with probability 1 / ((counter - init) * factor + 1), a lost race only loses one count
+        int base = Math.max(0, rank - LFU_INIT);
+        if (ThreadLocalRandom.current().nextInt(base * LFU_LOG_FACTOR + 1) == 0) {
+            value.compareAndSetRank(rank, rank + 1);
+        }
+    }
+
+    /**
+     * a value sampled but not chosen. for lfu, decrease its counter by chance, so values read often only in the past
+     * become evictable.
+     */
+    void survived(DirectValue value) {
+        if (lfu && ThreadLocalRandom.current().nextInt(LFU_DECAY_CHANCE) == 0) {
+            int rank = value.getRank();
+            if (rank > 0) {
+                value.compareAndSetRank(rank, rank - 1);
+            }
+        }
+    }
+
+    /**
+     * values are not ordered, the map samples them instead
+     */
+    @Override
+    public DirectValue evictNext(DirectValue value) {
+        return null;
+    }
+
+    @Override
+    public List<DirectValue> tails(long bytes, int num) {
+        return Collections.emptyList();
+    }
+}
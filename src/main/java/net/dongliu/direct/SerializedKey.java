@@ -0,0 +1,56 @@
+package net.dongliu.direct;
+
+import net.dongliu.direct.allocator.ByteBuf;
+
+import java.util.Arrays;
+
+/**
+ * Key in serialized form, used to lookup entries whose key is stored off-heap, in front of the value.
+ *
+ * @author Dong Liu
+ */
+class SerializedKey {
+
+    private final byte[] bytes;
+    private final int hash;
+
+    SerializedKey(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    int size() {
+        return bytes.length;
+    }
+
+    /**
+     * compare with the key stored at the head of buffer byte-wise, without copy it to heap
+     *
+     * @param keySize the size of key stored in buffer
+     */
+    boolean contentEquals(ByteBuf buffer, int keySize) {
+        return keySize == bytes.length && buffer.contentEquals(0, bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SerializedKey)) return false;
+        SerializedKey that = (SerializedKey) o;
+        return hash == that.hash && Arrays.equals(bytes, that.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "SerializedKey(" + bytes.length + " bytes)";
+    }
+}
@@ -0,0 +1,179 @@
+package net.dongliu.direct;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Segmented lru. New values enter the probation lru, a read moves a value from probation to the protected lru.
+ * When protected lru exceeds its share, its tail is demoted to head of probation. Values are evicted from probation
+ * tail, then from protected tail. Reads are recorded in a {@link ReadBuffer}, and applied in batch as lru does.
+ *
+ * @author Dong Liu
+ */
+class Slru implements Policy {
+
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+
+    private final ValueList probation = new ValueList(PROBATION);
+    private final ValueList protect = new ValueList(PROTECTED);
+
+    /**
+     * max share of values in protected lru
+     */
+    private final float protectedRatio;
+
+    private final ReadBuffer readBuffer = new ReadBuffer();
+
+    private final ReadBuffer.Consumer promoter = new ReadBuffer.Consumer() {
+        @Override
+        public void accept(DirectValue value) {
+            promote(value);
+        }
+    };
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Ticker ticker;
+
+    Slru(float protectedRatio, Ticker ticker) {
+        this.protectedRatio = protectedRatio;
+        this.ticker = ticker;
+    }
+
+    @Override
+    public void insert(DirectValue value) {
+        value.setRank((int) ticker.read());
+        lock.lock();
+        try {
+            drainReads();
+            probation.addFirst(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(DirectValue value) {
+        lock.lock();
+        try {
+            ValueList list = listOf(value);
+            if (list != null) {
+                list.remove(value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void replace(DirectValue oldValue, DirectValue value) {
+        remove(oldValue);
+        insert(value);
+    }
+
+    @Override
+    public void access(DirectValue value) {
+        if (readBuffer.offer(value) && lock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * apply recorded reads. call only while holding lock.
+     */
+    private void drainReads() {
+        readBuffer.drain(promoter);
+    }
+
+    /**
+     * move value to head of protected lru, demote protected tail if it is full. call only while holding lock.
+     */
+    private void promote(DirectValue value) {
+        ValueList list = listOf(value);
+        if (list == null) {
+            return;
+        }
+        value.setRank((int) ticker.read());
+        if (list == protect) {
+            protect.moveToFirst(value);
+            return;
+        }
+        probation.remove(value);
+        protect.addFirst(value);
+        int maxProtected = Math.max(1, (int) ((probation.size() + protect.size()) * protectedRatio));
+        while (protect.size() > maxProtected) {
+            DirectValue demoted = protect.tail();
+            protect.remove(demoted);
+            probation.addFirst(demoted);
+        }
+    }
+
+    /**
+     * the list value is in, null if value has been removed. call only while holding lock.
+     */
+    private ValueList listOf(DirectValue value) {
+        if (probation.contains(value)) {
+            return probation;
+        }
+        if (protect.contains(value)) {
+            return protect;
+        }
+        return null;
+    }
+
+    @Override
+    public DirectValue evictNext(DirectValue value) {
+        lock.lock();
+        try {
+            if (value == null) {
+                drainReads();
+            }
+            return next(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the eviction order: probation from tail, then protected from tail. call only while holding lock.
+     */
+    private DirectValue next(DirectValue value) {
+        if (value == null) {
+            return probation.tail() != null ? probation.tail() : protect.tail();
+        }
+        ValueList list = listOf(value);
+        if (list == null) {
+            return null;
+        }
+        if (value.precursor == null && list == probation) {
+            return protect.tail();
+        }
+        return value.precursor;
+    }
+
+    @Override
+    public List<DirectValue> tails(long bytes, int num) {
+        List<DirectValue> list = new ArrayList<>(Math.min(num, 16));
+        long got = 0;
+        lock.lock();
+        try {
+            drainReads();
+            DirectValue value = next(null);
+            while (value != null && got < bytes && list.size() < num) {
+                list.add(value);
+                got += value.capacity();
+                value = next(value);
+            }
+            return list;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.dongliu.direct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Low priority background thread scanning map segments a slot range at a time, removes expired values.
+ * Each tick runs for a bounded time, then continues from where it stopped on next tick.
+ *
+ * @author Dong Liu
+ */
+class Sweeper implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Sweeper.class);
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final DirectCache cache;
+    /**
+     * the time budget of each tick
+     */
+    private final long budgetNanos;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    Sweeper(DirectCache cache, long budgetNanos) {
+        this.cache = cache;
+        this.budgetNanos = budgetNanos;
+        this.thread = new Thread(this, "direct-cache-sweeper");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            LockSupport.parkNanos(this, TICK_NANOS);
+            if (!running) {
+                return;
+            }
+            try {
+                cache.sweep(budgetNanos);
+            } catch (Throwable e) {
+                logger.warn("Background sweep failed", e);
+            }
+        }
+    }
+}
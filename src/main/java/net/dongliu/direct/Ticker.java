@@ -0,0 +1,64 @@
+package net.dongliu.direct;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The source of time for expiry and recency of cache, in milliseconds. Only the difference of two readings
+ * is meaningful. Set by {@link DirectCacheBuilder#ticker(Ticker)}.
+ *
+ * @author Dong Liu
+ */
+public abstract class Ticker {
+
+    private static final ConcurrentHashMap<Long, CoarseTicker> COARSE = new ConcurrentHashMap<>();
+
+    private static final Ticker SYSTEM = new Ticker() {
+        @Override
+        public long read() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * the current time in ms
+     */
+    public abstract long read();
+
+    /**
+     * read System.currentTimeMillis every time
+     */
+    public static Ticker system() {
+        return SYSTEM;
+    }
+
+    /**
+     * a cache starts to use this ticker
+     */
+    void retain() {
+    }
+
+    /**
+     * a cache using this ticker is destroyed
+     */
+    void release() {
+    }
+
+    /**
+     * A coarse ticker, which caches the time and updates it every resolution by a daemon thread.
+     * A read is a volatile read only. Calls with the same resolution share one ticker, its thread runs only while
+     * caches built with it are not destroyed.
+     */
+    public static Ticker coarse(long resolution, TimeUnit unit) {
+        long nanos = unit.toNanos(resolution);
+        CoarseTicker ticker = COARSE.get(nanos);
+        if (ticker == null) {
+            CoarseTicker created = new CoarseTicker(nanos);
+            ticker = COARSE.putIfAbsent(nanos, created);
+            if (ticker == null) {
+                ticker = created;
+            }
+        }
+        return ticker;
+    }
+}
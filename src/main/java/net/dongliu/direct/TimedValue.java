@@ -0,0 +1,46 @@
+package net.dongliu.direct;
+
+/**
+ * The cache entry of caches which expire proactively or refresh, carrying the links of timer wheel and the write
+ * time. Other caches use plain {@link DirectValue}, and do not pay for these fields.
+ *
+ * @author Dong Liu
+ */
+class TimedValue extends DirectValue {
+
+    // for timer wheel of expiry
+    TimedValue timerNext;
+    TimedValue timerPrev;
+    /**
+     * the bucket of timer wheel this value is in, -1 if not in wheel
+     */
+    short timerBucket = -1;
+
+    /**
+     * The time in ms this entry is written at
+     */
+    private long writeTime;
+
+    /**
+     * create entry with key on heap.
+     */
+    TimedValue(Object key) {
+        super(key, 0);
+    }
+
+    /**
+     * @param key     the key, null if key is stored off-heap
+     * @param keySize the size of serialized key stored in buffer, 0 if key is on heap
+     */
+    TimedValue(Object key, int keySize) {
+        super(key, keySize);
+    }
+
+    long writeTime() {
+        return writeTime;
+    }
+
+    void writeTime(long writeTime) {
+        this.writeTime = writeTime;
+    }
+}
@@ -0,0 +1,167 @@
+package net.dongliu.direct;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of values by expire time, of one map segment. Each level is a ring of buckets, a bucket
+ * of level i holds values expire in one span of that level. Values expire within a level 0 span (about one second)
+ * are in level 0; farther ones are in coarser levels, and cascade to finer levels when their bucket is passed.
+ * Schedule and remove are O(1), advance costs the buckets passed and the values in them.
+ * Values are linked in buckets by their timer fields. Not thread-safe, used under segment write lock.
+ *
+ * @author Dong Liu
+ */
+class TimerWheel {
+
+    /**
+     * buckets of each level, powers of two
+     */
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+
+    /**
+     * the span of one bucket of each level in ms, about one second, one minute, one hour, one and half day,
+     * and six days. the last one is the range of the wheel.
+     */
+    private static final long[] SPANS = {1L << 10, 1L << 16, 1L << 22, 1L << 27, 1L << 29, 1L << 29};
+
+    private static final int[] SHIFT = {10, 16, 22, 27, 29};
+
+    /**
+     * the index of first bucket of each level, in heads
+     */
+    private static final int[] OFFSET = {0, 64, 128, 160, 164};
+
+    private static final int BUCKET_NUM = 165;
+
+    /**
+     * heads of bucket lists, indexed by bucket id
+     */
+    private final TimedValue[] heads = new TimedValue[BUCKET_NUM];
+
+    /**
+     * the time in ms wheel advanced to
+     */
+    private long time;
+
+    TimerWheel(long now) {
+        this.time = now;
+    }
+
+    /**
+     * add value with expire time to wheel
+     */
+    void schedule(TimedValue value) {
+        // already expired values go to the current bucket, which is expired by next advance
+        short bucket = findBucket(Math.max(value.expireAt(), time));
+        value.timerBucket = bucket;
+        value.timerPrev = null;
+        value.timerNext = heads[bucket];
+        if (heads[bucket] != null) {
+            heads[bucket].timerPrev = value;
+        }
+        heads[bucket] = value;
+    }
+
+    /**
+     * remove value from wheel, do nothing if it is not in
+     */
+    void remove(TimedValue value) {
+        short bucket = value.timerBucket;
+        if (bucket < 0) {
+            return;
+        }
+        if (value.timerPrev == null) {
+            heads[bucket] = value.timerNext;
+        } else {
+            value.timerPrev.timerNext = value.timerNext;
+        }
+        if (value.timerNext != null) {
+            value.timerNext.timerPrev = value.timerPrev;
+        }
+        value.timerNext = null;
+        value.timerPrev = null;
+        value.timerBucket = -1;
+    }
+
+    private short findBucket(long expireAt) {
+        long duration = expireAt - time;
+        int last = BUCKETS.length - 1;
+        for (int level = 0; level < last; level++) {
+            if (duration < SPANS[level + 1]) {
+                long ticks = expireAt >>> SHIFT[level];
+                return (short) (OFFSET[level] + (ticks & (BUCKETS[level] - 1)));
+            }
+        }
+        return (short) OFFSET[last];
+    }
+
+    /**
+     * advance wheel to now, take out the expired values. values in passed buckets not expired yet are scheduled
+     * again to finer buckets.
+     *
+     * @return the expired values, which have been removed from wheel
+     */
+    List<DirectValue> advance(long now) {
+        List<DirectValue> expired = new ArrayList<>();
+        long previous = time;
+        if (now - previous <= 0) {
+            return expired;
+        }
+        time = now;
+        for (int level = 0; level < SHIFT.length; level++) {
+            long previousTicks = previous >>> SHIFT[level];
+            long currentTicks = now >>> SHIFT[level];
+            if (currentTicks - previousTicks <= 0) {
+                break;
+            }
+            expire(level, previousTicks, currentTicks, expired);
+        }
+        return expired;
+    }
+
+    /**
+     * handle the buckets of level passed from previousTicks to currentTicks
+     */
+    private void expire(int level, long previousTicks, long currentTicks, List<DirectValue> expired) {
+        int mask = BUCKETS[level] - 1;
+        long steps = Math.min(1 + currentTicks - previousTicks, BUCKETS[level]);
+        int start = (int) (previousTicks & mask);
+        for (int i = 0; i < steps; i++) {
+            int bucket = OFFSET[level] + ((start + i) & mask);
+            TimedValue value = heads[bucket];
+            heads[bucket] = null;
+            while (value != null) {
+                TimedValue next = value.timerNext;
+                value.timerNext = null;
+                value.timerPrev = null;
+                value.timerBucket = -1;
+                if (value.expireAt() == 0) {
+                    // made never expire by a read
+                } else if (value.expireAt() - time > 0) {
+                    schedule(value);
+                } else {
+                    expired.add(value);
+                }
+                value = next;
+            }
+        }
+    }
+
+    /**
+     * remove all values
+     */
+    void clear() {
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            TimedValue value = heads[i];
+            heads[i] = null;
+            while (value != null) {
+                TimedValue next = value.timerNext;
+                value.timerNext = null;
+                value.timerPrev = null;
+                value.timerBucket = -1;
+                value = next;
+            }
+        }
+    }
+}
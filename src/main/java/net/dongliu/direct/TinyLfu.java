@@ -0,0 +1,168 @@
+package net.dongliu.direct;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * W-TinyLFU policy. New values enter a small lru window. A value leaving the window is admitted to the head of
+ * main lru only if its estimated frequency is higher than the main lru victim, otherwise it is put after the
+ * victim to be evicted first. Values are evicted from main lru tail, then from window.
+ *
+ * @author Dong Liu
+ */
+class TinyLfu implements Policy {
+
+    private static final byte WINDOW = 1;
+    private static final byte MAIN = 2;
+
+    /**
+     * percent of values in the window
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    private final ValueList window = new ValueList(WINDOW);
+    private final ValueList main = new ValueList(MAIN);
+    private final FrequencySketch sketch = new FrequencySketch(16);
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Ticker ticker;
+
+    TinyLfu(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    @Override
+    public void insert(DirectValue value) {
+        value.setRank((int) ticker.read());
+        lock.lock();
+        try {
+            sketch.ensureCapacity(window.size() + main.size() + 1);
+            sketch.increment(value.hash());
+            window.addFirst(value);
+            evictWindow();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * move values out of window, until the window is small enough
+     */
+    private void evictWindow() {
+        int maxWindow = Math.max(1, (window.size() + main.size()) * WINDOW_PERCENT / 100);
+        while (window.size() > maxWindow) {
+            DirectValue candidate = window.tail();
+            window.remove(candidate);
+            DirectValue victim = main.tail();
+            if (victim == null || sketch.frequency(candidate.hash()) > sketch.frequency(victim.hash())) {
+                main.addFirst(candidate);
+            } else {
+                // older than the victim, so be evicted first when merged with other segments
+                candidate.setRank(victim.getRank() - 1);
+                main.addLast(candidate);
+            }
+        }
+    }
+
+    @Override
+    public void remove(DirectValue value) {
+        lock.lock();
+        try {
+            ValueList list = listOf(value);
+            if (list != null) {
+                list.remove(value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void replace(DirectValue oldValue, DirectValue value) {
+        remove(oldValue);
+        insert(value);
+    }
+
+    /**
+     * record the read and move the value to head of its list. reads are lossy: skipped if the lock is held
+     * by other thread, so readers never wait.
+     */
+    @Override
+    public void access(DirectValue value) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            ValueList list = listOf(value);
+            if (list == null) {
+                return;
+            }
+            sketch.increment(value.hash());
+            value.setRank((int) ticker.read());
+            list.moveToFirst(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the list value is in, null if value has been removed. call only while holding lock.
+     */
+    private ValueList listOf(DirectValue value) {
+        if (main.contains(value)) {
+            return main;
+        }
+        if (window.contains(value)) {
+            return window;
+        }
+        return null;
+    }
+
+    @Override
+    public DirectValue evictNext(DirectValue value) {
+        lock.lock();
+        try {
+            return next(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the eviction order: main lru from tail, then window from tail. call only while holding lock.
+     */
+    private DirectValue next(DirectValue value) {
+        if (value == null) {
+            return main.tail() != null ? main.tail() : window.tail();
+        }
+        ValueList list = listOf(value);
+        if (list == null) {
+            return null;
+        }
+        if (value.precursor == null && list == main) {
+            return window.tail();
+        }
+        return value.precursor;
+    }
+
+    @Override
+    public List<DirectValue> tails(long bytes, int num) {
+        List<DirectValue> list = new ArrayList<>(Math.min(num, 16));
+        long got = 0;
+        lock.lock();
+        try {
+            DirectValue value = next(null);
+            while (value != null && got < bytes && list.size() < num) {
+                list.add(value);
+                got += value.capacity();
+                value = next(value);
+            }
+            return list;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
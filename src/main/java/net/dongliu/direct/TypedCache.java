@@ -1,6 +1,7 @@
 package net.dongliu.direct;
 
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Cache with type of key and value
@@ -16,11 +17,12 @@ public class TypedCache<K, V> {
     /**
      * Constructor
      *
-     * @param maxMemory the max off-heap size could use.
+     * @param maxMemory  the max off-heap size could use.
+     * @param offHeapKey if serialize key and store it off-heap with value
      */
-    TypedCache(long maxMemory, int concurrency, Serializer serializer,
+    TypedCache(long maxMemory, int concurrency, Serializer serializer, boolean offHeapKey,
                Class<K> keyClass, Class<V> valueClass) {
-        cache = new DirectCache(maxMemory, concurrency, serializer);
+        cache = new DirectCache(maxMemory, concurrency, serializer, offHeapKey);
         this.keyClass = keyClass;
         this.valueClass = valueClass;
     }
@@ -54,6 +56,16 @@ public class TypedCache<K, V> {
         cache.set(key, value, expiry);
     }
 
+    /**
+     * set a value. if already exist, replace it
+     *
+     * @param duration The amount of time for the element to live, 0 indicates unlimited. Precision is millisecond.
+     * @param value    cannot be null
+     */
+    public void set(K key, V value, long duration, TimeUnit unit) {
+        cache.set(key, value, duration, unit);
+    }
+
     /**
      * Put an element in the store only if no element is currently mapped to the elements key.
      *
@@ -73,6 +85,16 @@ public class TypedCache<K, V> {
         return cache.add(key, value, expiry);
     }
 
+    /**
+     * Put an element in the store only if no element is currently mapped to the elements key.
+     *
+     * @param duration The amount of time for the element to live, 0 indicates unlimited. Precision is millisecond.
+     * @return true if the key is not in cache(even if put op is failed), false otherwise.
+     */
+    public boolean add(K key, V value, long duration, TimeUnit unit) {
+        return cache.add(key, value, duration, unit);
+    }
+
     /**
      * remove key from cache
      */
@@ -0,0 +1,172 @@
+package net.dongliu.direct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Binary min-heap of DirectValues ordered by rank, each value knows its position by heapIndex,
+ * so remove and update are O(log n). Not thread-safe, used by policies under their lock.
+ *
+ * @author Dong Liu
+ */
+class ValueHeap {
+
+    private DirectValue[] heap = new DirectValue[16];
+    private int size;
+
+    boolean contains(DirectValue value) {
+        int index = value.heapIndex;
+        return index < size && heap[index] == value;
+    }
+
+    void add(DirectValue value) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size << 1);
+        }
+        heap[size] = value;
+        value.heapIndex = size;
+        siftUp(size++);
+    }
+
+    /**
+     * remove value, which should be in this heap.
+     */
+    void remove(DirectValue value) {
+        int index = value.heapIndex;
+        DirectValue last = heap[--size];
+        heap[size] = null;
+        if (index != size) {
+            heap[index] = last;
+            last.heapIndex = index;
+            update(last);
+        }
+    }
+
+    /**
+     * restore heap order after rank of value, which is in this heap, changed.
+     */
+    void update(DirectValue value) {
+        int index = value.heapIndex;
+        siftUp(index);
+        if (heap[index] == value) {
+            siftDown(index);
+        }
+    }
+
+    DirectValue peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * the value with next higher rank after value. enumerates the heap from root by rank,
+     * cost O(k log k) for the k-th value.
+     *
+     * @param value the value last got, or null to get the lowest
+     * @return null if no more value, or value is not in heap
+     */
+    DirectValue next(DirectValue value) {
+        if (value == null) {
+            return peek();
+        }
+        if (!contains(value)) {
+            return null;
+        }
+        PriorityQueue<Integer> queue = newIndexQueue();
+        boolean found = false;
+        while (!queue.isEmpty()) {
+            int index = pollIndex(queue);
+            if (found) {
+                return heap[index];
+            }
+            found = heap[index] == value;
+        }
+        return null;
+    }
+
+    /**
+     * values of lowest rank, in rank order, until their capacity reaches bytes, or num values got.
+     */
+    List<DirectValue> lowest(long bytes, int num) {
+        List<DirectValue> list = new ArrayList<>(Math.min(num, 16));
+        long got = 0;
+        PriorityQueue<Integer> queue = newIndexQueue();
+        while (!queue.isEmpty() && got < bytes && list.size() < num) {
+            DirectValue value = heap[pollIndex(queue)];
+            list.add(value);
+            got += value.capacity();
+        }
+        return list;
+    }
+
+    /**
+     * queue of heap indexes ordered by rank of values, contains root if heap is not empty
+     */
+    private PriorityQueue<Integer> newIndexQueue() {
+        PriorityQueue<Integer> queue = new PriorityQueue<>(16, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Policy.COLDEST_FIRST.compare(heap[o1], heap[o2]);
+            }
+        });
+        if (size > 0) {
+            queue.add(0);
+        }
+        return queue;
+    }
+
+    /**
+     * poll the index of lowest rank, and offer its children
+     */
+    private int pollIndex(PriorityQueue<Integer> queue) {
+        int index = queue.poll();
+        if (2 * index + 1 < size) {
+            queue.add(2 * index + 1);
+        }
+        if (2 * index + 2 < size) {
+            queue.add(2 * index + 2);
+        }
+        return index;
+    }
+
+    private void siftUp(int index) {
+        DirectValue value = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (Policy.COLDEST_FIRST.compare(value, heap[parent]) >= 0) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].heapIndex = index;
+            index = parent;
+        }
+        heap[index] = value;
+        value.heapIndex = index;
+    }
+
+    private void siftDown(int index) {
+        DirectValue value = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && Policy.COLDEST_FIRST.compare(heap[right], heap[child]) < 0) {
+                child = right;
+            }
+            if (Policy.COLDEST_FIRST.compare(value, heap[child]) <= 0) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].heapIndex = index;
+            index = child;
+        }
+        heap[index] = value;
+        value.heapIndex = index;
+    }
+}
@@ -0,0 +1,92 @@
+package net.dongliu.direct;
+
+/**
+ * Double linked list of DirectValues, linked by their successor and precursor fields, head is the most recent.
+ * A value can be in only one list at a time. Not thread-safe, used by policies under their lock.
+ *
+ * @author Dong Liu
+ */
+class ValueList {
+
+    /**
+     * set to the queue field of values in this list
+     */
+    private final byte id;
+
+    private DirectValue head;
+    private DirectValue tail;
+    private int size;
+
+    ValueList(byte id) {
+        this.id = id;
+    }
+
+    /**
+     * if value is linked in this list. every node but head has a precursor, removed nodes have neither.
+     */
+    boolean contains(DirectValue value) {
+        return value.queue == id && (value == head || value.precursor != null);
+    }
+
+    void addFirst(DirectValue value) {
+        value.queue = id;
+        if (head == null) {
+            head = tail = value;
+        } else {
+            value.successor = head;
+            head.precursor = value;
+            head = value;
+        }
+        size++;
+    }
+
+    void addLast(DirectValue value) {
+        value.queue = id;
+        if (tail == null) {
+            head = tail = value;
+        } else {
+            value.precursor = tail;
+            tail.successor = value;
+            tail = value;
+        }
+        size++;
+    }
+
+    /**
+     * remove value, which should be in this list.
+     */
+    void remove(DirectValue value) {
+        if (value == head) {
+            head = value.successor;
+        } else {
+            value.precursor.successor = value.successor;
+        }
+        if (value == tail) {
+            tail = value.precursor;
+        } else {
+            value.successor.precursor = value.precursor;
+        }
+        value.successor = null;
+        value.precursor = null;
+        size--;
+    }
+
+    void moveToFirst(DirectValue value) {
+        if (value != head) {
+            remove(value);
+            addFirst(value);
+        }
+    }
+
+    DirectValue head() {
+        return head;
+    }
+
+    DirectValue tail() {
+        return tail;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -166,6 +166,26 @@ public class Allocator {
         return newDirectBuffer(capacity);
     }
 
+    /**
+     * allocate memory for a buf created by caller, which has no memory allocated yet.
+     * Used by subclasses of ByteBuf which carry their own fields, to save a separate buf object.
+     *
+     * @return false if exceed max size
+     */
+    public boolean allocate(ByteBuf buf, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be large then 0");
+        }
+        if (used.get() > this.capacity) {
+            return false;
+        }
+        PoolThreadCache cache = threadCache.get();
+        cache.directArena.allocate(cache, buf, capacity);
+        buf.initCache = cache;
+        used.getAndAdd(buf.capacity());
+        return true;
+    }
+
     private ByteBuf newDirectBuffer(int capacity) {
         if (used.get() > this.capacity) {
             return null;
@@ -173,6 +193,7 @@ public class Allocator {
         PoolThreadCache cache = threadCache.get();
         PoolArena directArena = cache.directArena;
         ByteBuf buf = directArena.allocate(cache, capacity);
+        buf.initCache = cache;
         used.getAndAdd(buf.capacity());
         return buf;
     }
@@ -191,6 +212,17 @@ public class Allocator {
         return used;
     }
 
+    /**
+     * the number of times arena locks are taken, for stats
+     */
+    long arenaLocks() {
+        long locks = 0;
+        for (PoolArena arena : directArenas) {
+            locks += arena.locks;
+        }
+        return locks;
+    }
+
     final class PoolThreadLocalCache extends ThreadLocal<PoolThreadCache> {
         private final AtomicInteger index = new AtomicInteger();
 
@@ -28,15 +28,19 @@ import java.nio.ByteBuffer;
 public class ByteBuf extends ReferenceCounted<ByteBuf> {
 
     PoolChunk chunk;
-    long handle;
+    // -1 if no memory allocated, or memory has been freed
+    long handle = -1;
     // the real used memory size
     int size;
     // the total memory we have
     int capacity;
-    //TODO: for cache, mostly not freed by the same thread, thread-local cache not work well
-    Thread initThread;
+    // the thread cache of allocating thread, freed region is given back to it
+    PoolThreadCache initCache;
     private long memoryAddress;
 
+    protected ByteBuf() {
+    }
+
     static ByteBuf newInstance() {
         ByteBuf buf = new ByteBuf();
         buf.setRefCnt(1);
@@ -51,7 +55,6 @@ public class ByteBuf extends ReferenceCounted<ByteBuf> {
         this.handle = handle;
         this.size = length;
         this.capacity = maxLength;
-        initThread = Thread.currentThread();
         this.memoryAddress = chunk.memory.getAddress() + offset;
     }
 
@@ -61,7 +64,6 @@ public class ByteBuf extends ReferenceCounted<ByteBuf> {
         this.chunk = chunk;
         handle = 0;
         this.size = capacity = length;
-        initThread = Thread.currentThread();
         this.memoryAddress = chunk.memory.getAddress();
     }
 
@@ -142,6 +144,18 @@ public class ByteBuf extends ReferenceCounted<ByteBuf> {
         return this;
     }
 
+    /**
+     * Compare this buffer's data starting at the specified absolute {@code index} with the whole specified array,
+     * without copying data to heap.
+     *
+     * @return true if the bytes are equal
+     * @throws IndexOutOfBoundsException if {@code index + bytes.length} is greater than {@code this.size}
+     */
+    public boolean contentEquals(int index, byte[] bytes) {
+        checkIndex(index, bytes.length);
+        return UNSAFE.memoryEquals(addr(index), bytes, 0, bytes.length);
+    }
+
     private void checkIndex(int index, int fieldLength) {
         ensureAccessible();
         if (fieldLength < 0) {
@@ -206,9 +220,9 @@ public class ByteBuf extends ReferenceCounted<ByteBuf> {
             alloc().getUsed().getAndAdd(-capacity());
             final long handle = this.handle;
             this.handle = -1;
-            boolean sameThread = initThread == Thread.currentThread();
-            initThread = null;
-            chunk.arena.free(chunk, handle, capacity, sameThread);
+            PoolThreadCache owner = initCache;
+            initCache = null;
+            chunk.arena.free(chunk, handle, capacity, owner);
         }
     }
 }
@@ -40,6 +40,11 @@ abstract class PoolArena {
     private final PoolChunkList q075;
     private final PoolChunkList q100;
 
+    /**
+     * the number of times the arena lock is taken, for stats. only changed while holding the lock
+     */
+    long locks;
+
     protected PoolArena(Allocator parent, int pageSize, int maxOrder, int pageShifts, int chunkSize) {
         this.parent = parent;
         this.pageSize = pageSize;
@@ -115,7 +120,7 @@ abstract class PoolArena {
         return (normCapacity & 0xFFFFFE00) == 0;
     }
 
-    private void allocate(PoolThreadCache cache, ByteBuf buf, final int reqCapacity) {
+    void allocate(PoolThreadCache cache, ByteBuf buf, final int reqCapacity) {
         final int normCapacity = normalizeCapacity(reqCapacity);
         if (isTinyOrSmall(normCapacity)) { // size < pageSize
             int tableIdx;
@@ -137,6 +142,7 @@ abstract class PoolArena {
             }
 
             synchronized (this) {
+                locks++;
                 final PoolSubpage head = table[tableIdx];
                 final PoolSubpage s = head.next;
                 if (s != head) {
@@ -161,6 +167,7 @@ abstract class PoolArena {
     }
 
     private synchronized void allocateNormal(ByteBuf buf, int reqCapacity, int normCapacity) {
+        locks++;
         if (q050.allocate(buf, reqCapacity, normCapacity) || q025.allocate(buf, reqCapacity, normCapacity) ||
                 q000.allocate(buf, reqCapacity, normCapacity) || qInit.allocate(buf, reqCapacity, normCapacity) ||
                 q075.allocate(buf, reqCapacity, normCapacity) || q100.allocate(buf, reqCapacity, normCapacity)) {
@@ -179,19 +186,23 @@ abstract class PoolArena {
         buf.initUnpooled(newUnpooledChunk(reqCapacity), reqCapacity);
     }
 
-    void free(PoolChunk chunk, long handle, int normCapacity, boolean sameThreads) {
+    /**
+     * @param owner the cache of thread allocated the region, null if unknown
+     */
+    void free(PoolChunk chunk, long handle, int normCapacity, PoolThreadCache owner) {
         if (chunk.unpooled) {
             destroyChunk(chunk);
         } else {
-            if (sameThreads) {
-                PoolThreadCache cache = parent.threadCache.get();
-                if (cache.add(this, chunk, handle, normCapacity)) {
+            if (owner != null) {
+                if (owner.isOwner() ? owner.addOwned(this, chunk, handle, normCapacity)
+                        : owner.offerFree(this, chunk, handle, normCapacity)) {
                     // cached so not free it.
                     return;
                 }
             }
 
             synchronized (this) {
+                locks++;
                 chunk.parent.free(chunk, handle);
             }
         }
@@ -20,11 +20,21 @@ package net.dongliu.direct.allocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * Acts a Thread cache for allocations. This implementation is moduled after
  * <a href="http://people.freebsd.org/~jasone/jemalloc/bsdcan2006/jemalloc.pdf">jemalloc</a> and the descripted
  * technics of <a href="https://www.facebook.com/notes/facebook-engineering/scalable-memory-allocation-using-jemalloc/
  * 480222803919">Scalable memory allocation using jemalloc</a>.
+ * <p>
+ * Cache entries are mostly freed by other threads than the writer allocated them. Such regions are handed back to
+ * the cache of allocating thread by a lock-free queue, and moved into the cache by the owner when it allocates or
+ * frees next, so neither side takes the arena lock for them. When the queue is full, the freeing thread frees all
+ * queued regions to arena with one lock, so regions are not held long by an idle owner.
+ * </p>
  */
 final class PoolThreadCache {
 
@@ -43,6 +53,26 @@ final class PoolThreadCache {
 
     private int allocations;
 
+    /**
+     * the max bytes of regions freed by other threads waiting in queue
+     */
+    private static final int MAX_PENDING_BYTES = 4 << 20;
+
+    /**
+     * the max number of regions waiting in queue
+     */
+    private static final int MAX_PENDING = 1 << 12;
+
+    // regions freed by other threads, polled by owner thread, or by any thread when full or after owner died
+    private final FreedQueue freed = new FreedQueue(MAX_PENDING);
+    private final AtomicInteger pendingBytes = new AtomicInteger();
+    private volatile boolean dead;
+
+    /**
+     * the region polled by owner thread, reused
+     */
+    private final Freed polled = new Freed();
+
     private final Thread thread = Thread.currentThread();
     private final Runnable freeTask = new Runnable() {
         @Override
@@ -147,6 +177,7 @@ final class PoolThreadCache {
     }
 
     private boolean allocate(MemoryRegionCache cache, ByteBuf buf, int reqCapacity) {
+        drainFreed();
         if (cache == null) {
             // no cache found so just return false here
             return false;
@@ -164,20 +195,106 @@ final class PoolThreadCache {
      * Returns {@code true} if it fit into the cache {@code false} otherwise.
      */
     boolean add(PoolArena area, PoolChunk chunk, long handle, int normCapacity) {
-        MemoryRegionCache cache;
+        MemoryRegionCache cache = cacheFor(area, normCapacity);
+        if (cache == null) {
+            return false;
+        }
+        return cache.add(chunk, handle);
+    }
+
+    private MemoryRegionCache cacheFor(PoolArena area, int normCapacity) {
         if (area.isTinyOrSmall(normCapacity)) {
             if (PoolArena.isTiny(normCapacity)) {
-                cache = cacheForTiny(area, normCapacity);
-            } else {
-                cache = cacheForSmall(area, normCapacity);
+                return cacheForTiny(area, normCapacity);
             }
-        } else {
-            cache = cacheForNormal(area, normCapacity);
+            return cacheForSmall(area, normCapacity);
         }
-        if (cache == null) {
+        return cacheForNormal(area, normCapacity);
+    }
+
+    /**
+     * if current thread is the owner of this cache
+     */
+    boolean isOwner() {
+        return thread == Thread.currentThread();
+    }
+
+    /**
+     * Add a region freed by the owner thread to the cache, after the ones freed by other threads.
+     * Returns {@code true} if it fit into the cache {@code false} otherwise.
+     */
+    boolean addOwned(PoolArena area, PoolChunk chunk, long handle, int normCapacity) {
+        drainFreed();
+        return add(area, chunk, handle, normCapacity);
+    }
+
+    /**
+     * Hand a region freed by another thread back to this cache, without lock. If the queue is full, the region and
+     * all queued ones are freed to arena with one lock.
+     * Returns {@code false} if the region should be freed to arena by caller.
+     */
+    boolean offerFree(PoolArena area, PoolChunk chunk, long handle, int normCapacity) {
+        if (dead || cacheFor(area, normCapacity) == null) {
             return false;
         }
-        return cache.add(chunk, handle);
+        if (pendingBytes.addAndGet(normCapacity) > MAX_PENDING_BYTES
+                || !freed.offer(chunk, handle, normCapacity)) {
+            pendingBytes.addAndGet(-normCapacity);
+            synchronized (directArena) {
+                directArena.locks++;
+                chunk.parent.free(chunk, handle);
+                releaseFreed();
+            }
+            return true;
+        }
+        if (dead) {
+            // the owner is gone and may have drained queue before this offer
+            synchronized (directArena) {
+                directArena.locks++;
+                releaseFreed();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * move regions freed by other threads into cache, the ones not fit are freed to arena with one lock.
+     * Called by owner thread only.
+     */
+    private void drainFreed() {
+        if (pendingBytes.get() == 0) {
+            return;
+        }
+        Freed f = polled;
+        while (freed.poll(f)) {
+            pendingBytes.addAndGet(-f.normCapacity);
+            if (!add(directArena, f.chunk, f.handle, f.normCapacity)) {
+                synchronized (directArena) {
+                    directArena.locks++;
+                    f.chunk.parent.free(f.chunk, f.handle);
+                    while (freed.poll(f)) {
+                        pendingBytes.addAndGet(-f.normCapacity);
+                        if (!add(directArena, f.chunk, f.handle, f.normCapacity)) {
+                            f.chunk.parent.free(f.chunk, f.handle);
+                        }
+                    }
+                }
+                f.chunk = null;
+                return;
+            }
+        }
+        f.chunk = null;
+    }
+
+    /**
+     * free all regions in queue to arena, by any thread. Call only while holding the arena lock.
+     */
+    private void releaseFreed() {
+        Freed f = new Freed();
+        while (freed.poll(f)) {
+            pendingBytes.addAndGet(-f.normCapacity);
+            f.chunk.parent.free(f.chunk, f.handle);
+        }
     }
 
     /**
@@ -189,6 +306,13 @@ final class PoolThreadCache {
     }
 
     private void free0() {
+        dead = true;
+        if (pendingBytes.get() != 0) {
+            synchronized (directArena) {
+                directArena.locks++;
+                releaseFreed();
+            }
+        }
         int numFreed = free(tinySubPageDirectCaches) +
                 free(smallSubPageDirectCaches) +
                 free(normalDirectCaches);
@@ -218,6 +342,7 @@ final class PoolThreadCache {
     }
 
     void trim() {
+        drainFreed();
         trim(tinySubPageDirectCaches);
         trim(smallSubPageDirectCaches);
         trim(normalDirectCaches);
@@ -261,6 +386,101 @@ final class PoolThreadCache {
         return cache[idx];
     }
 
+    /**
+     * A region freed by another thread, filled by {@link FreedQueue#poll(Freed)}.
+     */
+    private static final class Freed {
+        PoolChunk chunk;
+        long handle;
+        int normCapacity;
+    }
+
+    /**
+     * Bounded lock-free queue of regions freed by other threads, backed by arrays so an offer allocates nothing.
+     * Multi-producer and multi-consumer: each slot has a sequence number telling whether it is free for the offer
+     * of a round, or filled for the poll of that round, as in the bounded queue of Dmitry Vyukov.
+     */
+    private static final class FreedQueue {
+        private final int mask;
+        private final PoolChunk[] chunks;
+        private final long[] handles;
+        private final int[] normCapacities;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+
+        /**
+         * @param capacity power of two
+         */
+        FreedQueue(int capacity) {
+            mask = capacity - 1;
+            chunks = new PoolChunk[capacity];
+            handles = new long[capacity];
+            normCapacities = new int[capacity];
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        /**
+         * @return false if queue is full
+         */
+        boolean offer(PoolChunk chunk, long handle, int normCapacity) {
+            long pos;
+            int index;
+            for (; ; ) {
+                pos = tail.get();
+                index = (int) pos & mask;
+                long diff = sequences.get(index) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        break;
+                    }
+                } else if (diff < 0) {
+                    // not polled yet since last round
+                    return false;
+                }
+            }
+            chunks[index] = chunk;
+            handles[index] = handle;
+            normCapacities[index] = normCapacity;
+            // publish the slot to poll
+            sequences.set(index, pos + 1);
+            return true;
+        }
+
+        /**
+         * take the oldest region into f
+         *
+         * @return false if queue is empty
+         */
+        boolean poll(Freed f) {
+            long pos;
+            int index;
+            for (; ; ) {
+                pos = head.get();
+                index = (int) pos & mask;
+                long diff = sequences.get(index) - (pos + 1);
+                if (diff == 0) {
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        break;
+                    }
+                } else if (diff < 0) {
+                    // not offered yet
+                    return false;
+                }
+            }
+            f.chunk = chunks[index];
+            f.handle = handles[index];
+            f.normCapacity = normCapacities[index];
+            chunks[index] = null;
+            // free the slot for the offer of next round
+            sequences.set(index, pos + mask + 1);
+            return true;
+        }
+    }
+
     /**
      * Cache used for buffers which are backed by TINY or SMALL size.
      */
@@ -419,6 +639,7 @@ final class PoolThreadCache {
             }
             // need to synchronize on the area from which it was allocated before.
             synchronized (chunk.arena) {
+                chunk.arena.locks++;
                 chunk.parent.free(chunk, entry.handle);
             }
             entry.chunk = null;
@@ -67,6 +67,26 @@ public abstract class ReferenceCounted<T extends ReferenceCounted> {
         return (T) this;
     }
 
+    /**
+     * Increases the reference count by {@code 1} if this object has not been deallocated.
+     *
+     * @return {@code false} if the reference count is {@code 0} already
+     */
+    public boolean tryRetain() {
+        for (; ; ) {
+            int refCnt = this.refCnt;
+            if (refCnt == 0) {
+                return false;
+            }
+            if (refCnt == Integer.MAX_VALUE) {
+                throw new IllegalReferenceCountException(Integer.MAX_VALUE, 1);
+            }
+            if (refCntUpdater.compareAndSet(this, refCnt, refCnt + 1)) {
+                return true;
+            }
+        }
+    }
+
     /**
      * Increases the reference count by the specified {@code increment}.
      */
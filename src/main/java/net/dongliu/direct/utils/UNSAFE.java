@@ -27,6 +27,8 @@ public class UNSAFE {
     private static final boolean BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
 
     private static final long ARRAY_BASE_OFFSET;
+    private static final long OBJECT_ARRAY_BASE_OFFSET;
+    private static final int OBJECT_ARRAY_INDEX_SHIFT;
     private static final int PAGE_SIZE;
 
     private static final boolean PA = VM.isDirectMemoryPageAligned();
@@ -112,6 +114,8 @@ public class UNSAFE {
         logger.debug("java.nio.Bits.unaligned: {}", UNALIGNED_ACCESS);
 
         ARRAY_BASE_OFFSET = arrayBaseOffset();
+        OBJECT_ARRAY_BASE_OFFSET = unsafe.arrayBaseOffset(Object[].class);
+        OBJECT_ARRAY_INDEX_SHIFT = 31 - Integer.numberOfLeadingZeros(unsafe.arrayIndexScale(Object[].class));
     }
 
     static void throwException(Throwable t) {
@@ -244,6 +248,22 @@ public class UNSAFE {
         unsafe.putOrderedObject(object, address, value);
     }
 
+    /**
+     * read array element with volatile semantics
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getArrayElementVolatile(T[] array, int index) {
+        return (T) unsafe.getObjectVolatile(array, OBJECT_ARRAY_BASE_OFFSET + ((long) index << OBJECT_ARRAY_INDEX_SHIFT));
+    }
+
+    /**
+     * set array element with release semantics: writes before this are visible to threads read the element
+     * by {@link #getArrayElementVolatile(Object[], int)}
+     */
+    public static <T> void putArrayElementOrdered(T[] array, int index, T value) {
+        unsafe.putOrderedObject(array, OBJECT_ARRAY_BASE_OFFSET + ((long) index << OBJECT_ARRAY_INDEX_SHIFT), value);
+    }
+
     static void putByte(long address, byte value) {
         unsafe.putByte(address, value);
     }
@@ -381,6 +401,30 @@ public class UNSAFE {
         copyMemory(src, ARRAY_BASE_OFFSET + srcIndex, null, dstAddr, length);
     }
 
+    /**
+     * compare length bytes start at address with bytes in array start at index
+     *
+     * @return true if all bytes are equal
+     */
+    public static boolean memoryEquals(long address, byte[] bytes, int index, int length) {
+        long offset = ARRAY_BASE_OFFSET + index;
+        int i = 0;
+        if (UNALIGNED_ACCESS) {
+            // compare word by word, both sides are read in native order
+            for (; i <= length - 8; i += 8) {
+                if (unsafe.getLong(address + i) != unsafe.getLong(bytes, offset + i)) {
+                    return false;
+                }
+            }
+        }
+        for (; i < length; i++) {
+            if (unsafe.getByte(address + i) != unsafe.getByte(bytes, offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static Memory allocateMemory(int cap) {
         long size = Math.max(1L, (long) cap + (PA ? PAGE_SIZE : 0));
 
@@ -1,7 +1,6 @@
 package net.dongliu.direct;
 
 import net.dongliu.direct.allocator.Allocator;
-import net.dongliu.direct.allocator.ByteBuf;
 import net.dongliu.direct.utils.Size;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -24,7 +23,7 @@ public class ConcurrentMapTest {
 
     @Test
     public void testSizeAndClear() throws Exception {
-        DirectValue holder = new DirectValue("test", newBuffer("value123".getBytes()));
+        DirectValue holder = newValue("test", ("value123".getBytes()));
         map.put("test", holder);
         Assert.assertEquals(1, map.size());
         map.clear();
@@ -37,8 +36,7 @@ public class ConcurrentMapTest {
     @Test
     public void testGet() throws Exception {
         byte[] data = "value".getBytes();
-        ByteBuf buffer = newBuffer(data);
-        DirectValue holder = new DirectValue("test", buffer);
+        DirectValue holder = newValue("test", data);
         map.put("test", holder);
         DirectValue value = map.get("test");
         Assert.assertArrayEquals(data, value.readValue());
@@ -48,8 +46,8 @@ public class ConcurrentMapTest {
 
     @Test
     public void testPut() throws Exception {
-        DirectValue holder1 = new DirectValue("test", newBuffer("value1".getBytes()));
-        DirectValue holder2 = new DirectValue("test", newBuffer("value23".getBytes()));
+        DirectValue holder1 = newValue("test", ("value1".getBytes()));
+        DirectValue holder2 = newValue("test", ("value23".getBytes()));
         DirectValue value1 = map.put("test", holder1);
         Assert.assertNull(value1);
         DirectValue value2 = map.put("test", holder2);
@@ -62,8 +60,8 @@ public class ConcurrentMapTest {
 
     @Test
     public void testPutIfAbsent() throws Exception {
-        DirectValue holder1 = new DirectValue("test", newBuffer("value1".getBytes()));
-        DirectValue holder2 = new DirectValue("test", newBuffer("value23".getBytes()));
+        DirectValue holder1 = newValue("test", ("value1".getBytes()));
+        DirectValue holder2 = newValue("test", ("value23".getBytes()));
         DirectValue value1 = map.putIfAbsent("test", holder1);
         Assert.assertNull(value1);
         DirectValue value2 = map.putIfAbsent("test", holder2);
@@ -76,7 +74,7 @@ public class ConcurrentMapTest {
 
     @Test
     public void testRemove() throws Exception {
-        DirectValue directValue = new DirectValue("test", newBuffer("value1".getBytes()));
+        DirectValue directValue = newValue("test", ("value1".getBytes()));
         map.put("test", directValue);
         map.remove("test");
         Assert.assertEquals(0, map.size());
@@ -85,10 +83,63 @@ public class ConcurrentMapTest {
         Assert.assertEquals(0, allocator.getUsed().get());
     }
 
-    private ByteBuf newBuffer(byte[] bytes) {
-        ByteBuf buf = allocator.allocate(bytes.length);
-        buf.writeBytes(bytes);
-        return buf;
+    @Test
+    public void testRehashAndRemoved() throws Exception {
+        ConcurrentMap map = new ConcurrentMap(4, 0.75f, 1);
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i, new DirectValue("key" + i));
+        }
+        Assert.assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i += 2) {
+            Assert.assertNotNull(map.remove("key" + i));
+        }
+        Assert.assertEquals(500, map.size());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i % 2 == 1, map.containsKey("key" + i));
+        }
+        // reuse removed slots
+        for (int i = 0; i < 1000; i += 2) {
+            map.put("key" + i, new DirectValue("key" + i));
+        }
+        Assert.assertEquals(1000, map.size());
+        Assert.assertEquals(1000, map.keySet().size());
+        Assert.assertEquals("key10", map.get("key10").getKey());
+        map.clear();
+        Assert.assertEquals(0, map.keySet().toArray().length);
+    }
+
+    @Test
+    public void testIncrementalRehash() throws Exception {
+        ConcurrentMap map = new ConcurrentMap(1024, 0.75f, 1);
+        ConcurrentMap.Segment segment = map.segmentFor(0);
+        int i = 0;
+        while (segment.oldTable == null) {
+            map.put("key" + i, new DirectValue("key" + i));
+            i++;
+        }
+        // entries in both tables are visible while migrating
+        for (int j = 0; j < i; j++) {
+            Assert.assertNotNull(map.get("key" + j));
+        }
+        Assert.assertNotNull(map.remove("key0"));
+        map.put("key1", new DirectValue("key1"));
+        Assert.assertEquals(i - 1, map.keySet().size());
+        while (segment.oldTable != null) {
+            map.put("key" + i, new DirectValue("key" + i));
+            i++;
+        }
+        Assert.assertEquals(i - 1, map.size());
+        Assert.assertNull(map.get("key0"));
+        for (int j = 1; j < i; j++) {
+            Assert.assertNotNull(map.get("key" + j));
+        }
+    }
+
+    private DirectValue newValue(Object key, byte[] bytes) {
+        DirectValue value = new DirectValue(key);
+        allocator.allocate(value, bytes.length);
+        value.writeBytes(bytes);
+        return value;
     }
 
     @AfterClass
@@ -1,9 +1,22 @@
 package net.dongliu.direct;
 
+import net.dongliu.direct.utils.Size;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.Assert.*;
 
 /**
@@ -43,4 +56,551 @@ public class DirectCacheTest {
 
     }
 
+    @Test
+    public void testConcurrentReadWrite() throws Exception {
+        final DirectCache cache = DirectCache.newBuilder().offHeapKey(true).concurrency(4).build();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final boolean writer = t % 2 == 0;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20_000; i++) {
+                            String key = "key" + (i % 64);
+                            if (writer) {
+                                if (i % 5 == 0) {
+                                    cache.remove(key);
+                                } else {
+                                    cache.set(key, key);
+                                }
+                            } else {
+                                Value<String> value = cache.get(key, String.class);
+                                if (value != null) {
+                                    assertEquals(key, value.getValue());
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+        cache.destroy();
+        assertEquals(0, cache.offHeapSize());
+    }
+
+    @Test
+    public void testOffHeapKeyIterationWithRemoves() throws Exception {
+        final DirectCache cache = DirectCache.newBuilder().offHeapKey(true).concurrency(4).build();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 50_000; i++) {
+                        String key = "key" + (i % 256);
+                        if (i % 2 == 0) {
+                            cache.set(key, key);
+                        } else {
+                            cache.remove(key);
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    done.set(true);
+                }
+            }
+        });
+        writer.start();
+        try {
+            while (!done.get()) {
+                for (Object key : cache.keys()) {
+                    assertTrue(((String) key).startsWith("key"));
+                }
+            }
+        } finally {
+            writer.join();
+        }
+        assertNull(error.get());
+        cache.destroy();
+        assertEquals(0, cache.offHeapSize());
+    }
+
+    @Test
+    public void testOffHeapKey() {
+        DirectCache cache = DirectCache.newBuilder().offHeapKey(true).build();
+        cache.set("test", "value");
+        cache.set("test_null", null);
+        assertEquals("value", cache.get("test", String.class).getValue());
+        assertNull(cache.get("test_null", String.class).getValue());
+        assertNull(cache.get("test_1234", String.class));
+        assertTrue(cache.exists("test"));
+        assertEquals(2, cache.keys().size());
+        assertTrue(cache.keys().contains("test"));
+
+        cache.set("test", "value1");
+        assertEquals("value1", cache.get("test", String.class).getValue());
+        assertFalse(cache.add("test", "value2"));
+        cache.remove("test");
+        assertFalse(cache.exists("test"));
+        assertEquals(1, cache.size());
+        cache.destroy();
+    }
+
+    @Test
+    public void testLongKey() {
+        LongDirectCache cache = DirectCache.newBuilder().buildLong();
+        for (long i = 0; i < 10000; i++) {
+            cache.set(i * 31, "value" + i);
+        }
+        cache.set(-1L, null);
+        assertEquals(10001, cache.size());
+        assertEquals("value100", cache.get(3100, String.class).getValue());
+        assertNull(cache.get(-1L, String.class).getValue());
+        assertNull(cache.get(3101, String.class));
+        assertTrue(cache.exists(0));
+        assertTrue(cache.keys().contains(310L));
+
+        assertFalse(cache.add(0, "value"));
+        assertTrue(cache.add(1, "value"));
+        cache.set(0, "value0");
+        assertEquals("value0", cache.get(0, String.class).getValue());
+        cache.remove(0);
+        assertFalse(cache.exists(0));
+        cache.destroy();
+        assertEquals(0, cache.offHeapSize());
+    }
+
+    @Test
+    public void testEvictUnderMemoryPressure() {
+        DirectCache cache = DirectCache.newBuilder().maxMemorySize(Size.Mb(1)).concurrency(16).build();
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 10000; i++) {
+            cache.set("key" + i, value);
+            // the write always succeeds, by evicting cold entries from any segment
+            assertNotNull(cache.get("key" + i, byte[].class));
+        }
+        assertTrue(cache.size() < 10000);
+        assertTrue(cache.offHeapSize() <= Size.Mb(1) + 2048);
+        cache.destroy();
+    }
+
+    @Test
+    public void testBackgroundEviction() throws Exception {
+        DirectCache cache = DirectCache.newBuilder().maxMemorySize(Size.Mb(1)).concurrency(16)
+                .backgroundEviction(0.5f, 0.8f).build();
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 2000; i++) {
+            cache.set("key" + i, value);
+            assertNotNull(cache.get("key" + i, byte[].class));
+        }
+        // once exceeds the high watermark, the evictor brings used memory down to the low watermark
+        long high = (long) (Size.Mb(1) * 0.8f);
+        for (int i = 0; i < 100 && cache.offHeapSize() > high; i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(cache.offHeapSize() <= high);
+        assertTrue(cache.size() > 0);
+        cache.destroy();
+    }
+
+    @Test
+    public void testCustomEvictionPolicy() {
+        final Set<EvictionPolicy.Entry> entries = new LinkedHashSet<>();
+        EvictionPolicy fifo = new EvictionPolicy() {
+            @Override
+            public synchronized void onInsert(Entry entry) {
+                entries.add(entry);
+            }
+
+            @Override
+            public synchronized void onRemove(Entry entry) {
+                entries.remove(entry);
+            }
+
+            @Override
+            public void onAccess(Entry entry) {
+            }
+
+            @Override
+            public synchronized List<Entry> victims(long bytes, int num) {
+                List<Entry> victims = new ArrayList<>();
+                long got = 0;
+                for (Iterator<Entry> it = entries.iterator(); it.hasNext() && got < bytes && victims.size() < num; ) {
+                    Entry entry = it.next();
+                    victims.add(entry);
+                    got += entry.capacity();
+                }
+                return victims;
+            }
+        };
+        DirectCache cache = DirectCache.newBuilder().maxMemorySize(Size.Mb(1)).concurrency(16)
+                .evictionPolicy(fifo).build();
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 2000; i++) {
+            cache.set("key" + i, value);
+            assertNotNull(cache.get("key" + i, byte[].class));
+        }
+        // the oldest are evicted
+        assertNull(cache.get("key0", byte[].class));
+        assertNotNull(cache.get("key1999", byte[].class));
+        assertEquals(cache.size(), entries.size());
+        cache.destroy();
+    }
+
+    @Test
+    public void testRemovalListener() throws Exception {
+        final List<String> removals = new ArrayList<>();
+        RemovalListener listener = new RemovalListener() {
+            @Override
+            public synchronized void onRemoval(Object key, RemovalCause cause) {
+                removals.add(key + ":" + cause);
+            }
+        };
+        Executor sameThread = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        DirectCache cache = DirectCache.newBuilder().maxMemorySize(Size.Mb(1)).concurrency(16).offHeapKey(true)
+                .removalListener(listener, sameThread).build();
+        cache.set("a", "1");
+        cache.set("a", "2");
+        cache.remove("a");
+        cache.remove("a");
+        cache.set("b", "1", 1, TimeUnit.MILLISECONDS);
+        Thread.sleep(10);
+        assertNull(cache.get("b", String.class));
+        assertEquals(Arrays.asList("a:REPLACED", "a:EXPLICIT", "b:EXPIRED"), removals);
+
+        removals.clear();
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 2000; i++) {
+            cache.set("key" + i, value);
+        }
+        assertTrue(removals.size() > 0);
+        for (String removal : removals) {
+            assertTrue(removal.startsWith("key") && removal.endsWith(":EVICTED"));
+        }
+        cache.destroy();
+
+        final List<Object> keys = new ArrayList<>();
+        LongDirectCache longCache = DirectCache.newBuilder().removalListener(new RemovalListener() {
+            @Override
+            public void onRemoval(Object key, RemovalCause cause) {
+                keys.add(key);
+            }
+        }, sameThread).buildLong();
+        longCache.set(1L, "1");
+        try {
+            // would remove without notification
+            longCache.keys().remove(1L);
+            fail();
+        } catch (UnsupportedOperationException ignore) {
+        }
+        longCache.remove(1L);
+        assertEquals(Arrays.<Object>asList(1L), keys);
+        longCache.destroy();
+    }
+
+    @Test
+    public void testProactiveExpiry() throws Exception {
+        DirectCache cache = DirectCache.newBuilder().maxMemorySize(Size.Mb(16)).concurrency(16)
+                .proactiveExpiry(true).build();
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 1000; i++) {
+            cache.set("key" + i, value, 100, TimeUnit.MILLISECONDS);
+        }
+        cache.set("forever", value);
+        assertEquals(1001, cache.size());
+        // removed without being read
+        for (int i = 0; i < 40 && cache.size() > 1; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, cache.size());
+        assertTrue(cache.offHeapSize() < 4096);
+        assertNotNull(cache.get("forever", byte[].class));
+        cache.destroy();
+    }
+
+    @Test
+    public void testCoarseTickerStopsWithCaches() throws Exception {
+        Ticker ticker = Ticker.coarse(1, TimeUnit.MILLISECONDS);
+        assertSame(ticker, Ticker.coarse(1, TimeUnit.MILLISECONDS));
+        DirectCache cache1 = DirectCache.newBuilder().ticker(ticker).build();
+        DirectCache cache2 = DirectCache.newBuilder().ticker(ticker).build();
+        assertEquals(1, tickerThreads());
+        cache1.destroy();
+        cache1.destroy();
+        Thread.sleep(20);
+        assertEquals(1, tickerThreads());
+        assertTrue(Math.abs(ticker.read() - System.currentTimeMillis()) < 100);
+        cache2.destroy();
+        for (int i = 0; i < 100 && tickerThreads() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, tickerThreads());
+        // reads without caches fall back to the system clock
+        assertTrue(Math.abs(ticker.read() - System.currentTimeMillis()) < 100);
+    }
+
+    private static int tickerThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("direct-cache-ticker") && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testManualTicker() {
+        ManualTicker ticker = new ManualTicker(1_000_000);
+        DirectCache cache = DirectCache.newBuilder().ticker(ticker).proactiveExpiry(true).build();
+        cache.set("a", "1", 1);
+        cache.set("b", "1", 1);
+        ticker.advance(999, TimeUnit.MILLISECONDS);
+        assertEquals("1", cache.get("a", String.class).getValue());
+        ticker.advance(2, TimeUnit.MILLISECONDS);
+        assertNull(cache.get("a", String.class));
+        // b is removed by timer wheel, without being read
+        assertEquals(1, cache.size());
+        ticker.advance(2, TimeUnit.SECONDS);
+        // the expirer thread may have done it
+        cache.expire();
+        assertEquals(0, cache.size());
+        cache.destroy();
+    }
+
+    @Test
+    public void testExpireAfterAccess() {
+        ManualTicker ticker = new ManualTicker(1_000_000);
+        DirectCache cache = DirectCache.newBuilder().ticker(ticker).expireAfterAccess(true)
+                .proactiveExpiry(true).build();
+        cache.set("session", "1", 1);
+        cache.set("write", "1", 1, false);
+        for (int i = 0; i < 5; i++) {
+            ticker.advance(800, TimeUnit.MILLISECONDS);
+            assertNotNull(cache.get("session", String.class));
+        }
+        assertNull(cache.get("write", String.class));
+        // the timer wheel reschedules by the pushed expire time
+        ticker.advance(800, TimeUnit.MILLISECONDS);
+        cache.expire();
+        assertEquals(1, cache.size());
+        ticker.advance(2000, TimeUnit.MILLISECONDS);
+        cache.expire();
+        assertEquals(0, cache.size());
+        cache.destroy();
+    }
+
+    @Test
+    public void testExpiry() {
+        ManualTicker ticker = new ManualTicker(1_000_000);
+        DirectCache cache = DirectCache.newBuilder().ticker(ticker).expiry(new Expiry() {
+            @Override
+            public long expireAfterCreate(Object key, Object value, int size) {
+                return key.equals("forever") ? NEVER : TimeUnit.MILLISECONDS.toNanos(100);
+            }
+
+            @Override
+            public long expireAfterUpdate(Object key, Object value, int size, long currentDuration) {
+                return TimeUnit.MILLISECONDS.toNanos(300);
+            }
+
+            @Override
+            public long expireAfterRead(Object key, int size, long currentDuration) {
+                return key.equals("read") ? TimeUnit.MILLISECONDS.toNanos(200) : currentDuration;
+            }
+        }).build();
+        cache.set("a", "1");
+        cache.set("b", "1");
+        cache.set("b", "2");
+        cache.set("read", "1");
+        cache.set("forever", "1");
+        cache.add("c", "1");
+        cache.set("explicit", "1", 1);
+        ticker.advance(50, TimeUnit.MILLISECONDS);
+        assertNotNull(cache.get("read", String.class));
+        ticker.advance(51, TimeUnit.MILLISECONDS);
+        assertNull(cache.get("a", String.class));
+        assertNull(cache.get("c", String.class));
+        assertEquals("2", cache.get("b", String.class).getValue());
+        assertNotNull(cache.get("read", String.class));
+        ticker.advance(250, TimeUnit.MILLISECONDS);
+        assertNull(cache.get("b", String.class));
+        assertNull(cache.get("read", String.class));
+        assertNotNull(cache.get("explicit", String.class));
+        ticker.advance(1, TimeUnit.DAYS);
+        assertNotNull(cache.get("forever", String.class));
+        assertNull(cache.get("explicit", String.class));
+        cache.destroy();
+    }
+
+    @Test
+    public void testExpiryReadReschedules() {
+        ManualTicker ticker = new ManualTicker(1_000_000);
+        final AtomicInteger reads = new AtomicInteger();
+        DirectCache cache = DirectCache.newBuilder().ticker(ticker).proactiveExpiry(true).expiry(new Expiry() {
+            @Override
+            public long expireAfterCreate(Object key, Object value, int size) {
+                return TimeUnit.MILLISECONDS.toNanos(100);
+            }
+
+            @Override
+            public long expireAfterUpdate(Object key, Object value, int size, long currentDuration) {
+                return currentDuration;
+            }
+
+            @Override
+            public long expireAfterRead(Object key, int size, long currentDuration) {
+                // the first read pins the entry, the second one gives it a deadline again
+                return reads.incrementAndGet() == 1 ? NEVER : TimeUnit.MILLISECONDS.toNanos(100);
+            }
+        }).build();
+        cache.set("a", "1");
+        assertNotNull(cache.get("a", String.class));
+        ticker.advance(2, TimeUnit.SECONDS);
+        cache.expire();
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("a", String.class));
+        ticker.advance(2, TimeUnit.SECONDS);
+        // removed by timer wheel, without being read
+        cache.expire();
+        assertEquals(0, cache.size());
+        cache.destroy();
+    }
+
+    @Test
+    public void testBackgroundSweep() throws Exception {
+        DirectCache cache = DirectCache.newBuilder().maxMemorySize(Size.Mb(16)).concurrency(16)
+                .backgroundSweep(1, TimeUnit.MILLISECONDS).build();
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 1000; i++) {
+            cache.set("key" + i, value, 100, TimeUnit.MILLISECONDS);
+        }
+        cache.set("forever", value);
+        assertEquals(1001, cache.size());
+        // removed without being read
+        for (int i = 0; i < 40 && cache.size() > 1; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, cache.size());
+        assertTrue(cache.offHeapSize() < 4096);
+        assertNotNull(cache.get("forever", byte[].class));
+        cache.destroy();
+    }
+
+    @Test
+    public void testSweepBudget() {
+        ManualTicker ticker = new ManualTicker(1_000_000);
+        DirectCache cache = DirectCache.newBuilder().ticker(ticker).concurrency(4).build();
+        for (int i = 0; i < 1000; i++) {
+            cache.set("key" + i, "1", 1);
+        }
+        cache.set("forever", "1");
+        ticker.advance(2, TimeUnit.SECONDS);
+        // a zero budget does one step a call, resumes from where it stopped
+        int calls = 0;
+        while (cache.size() > 1) {
+            cache.sweep(0);
+            calls++;
+        }
+        assertTrue(calls > 1);
+        assertNotNull(cache.get("forever", String.class));
+        // a pass over fresh entries stops before the budget is used up
+        long start = System.nanoTime();
+        assertEquals(0, cache.sweep(TimeUnit.SECONDS.toNanos(10)));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        cache.destroy();
+    }
+
+    @Test
+    public void testRefreshAfterWrite() {
+        ManualTicker ticker = new ManualTicker(1_000_000);
+        final List<Object> loads = new ArrayList<>();
+        final List<Runnable> tasks = new ArrayList<>();
+        Executor deferred = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        DirectCache cache = DirectCache.newBuilder().ticker(ticker).refreshAfterWrite(1, TimeUnit.SECONDS,
+                new CacheLoader() {
+                    @Override
+                    public Object load(Object key) {
+                        loads.add(key);
+                        return "v" + loads.size();
+                    }
+                }, deferred).build();
+        cache.set("a", "v0", 5);
+        ticker.advance(500, TimeUnit.MILLISECONDS);
+        assertEquals("v0", cache.get("a", String.class).getValue());
+        assertTrue(tasks.isEmpty());
+
+        // stale reads return the current value, one reload for the key
+        ticker.advance(600, TimeUnit.MILLISECONDS);
+        assertEquals("v0", cache.get("a", String.class).getValue());
+        assertEquals("v0", cache.get("a", String.class).getValue());
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        assertEquals(Arrays.<Object>asList("a"), loads);
+        assertEquals("v1", cache.get("a", String.class).getValue());
+        assertTrue(tasks.isEmpty());
+
+        // the reloaded entry keeps the expiry of 5 seconds
+        ticker.advance(4900, TimeUnit.MILLISECONDS);
+        assertEquals("v1", cache.get("a", String.class).getValue());
+        // a reload does not overwrite a value set since
+        cache.set("a", "new", 5);
+        tasks.remove(0).run();
+        assertEquals("new", cache.get("a", String.class).getValue());
+        ticker.advance(5001, TimeUnit.MILLISECONDS);
+        assertNull(cache.get("a", String.class));
+        cache.destroy();
+    }
+
+    @Test
+    public void testEarlyExpiration() {
+        ManualTicker ticker = new ManualTicker(1_000_000);
+        DirectCache cache = DirectCache.newBuilder().ticker(ticker).earlyExpiration(1).build();
+        // a miss, then the value takes 200 ms to recompute
+        assertNull(cache.get("hot", String.class));
+        ticker.advance(200, TimeUnit.MILLISECONDS);
+        cache.set("hot", "1", 10);
+        cache.set("cold", "1", 10);
+
+        ticker.advance(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 1000; i++) {
+            assertNotNull(cache.get("hot", String.class));
+        }
+        // 100 ms before expire, about exp(-0.5) of reads act as expired
+        ticker.advance(4900, TimeUnit.MILLISECONDS);
+        int early = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (cache.get("hot", String.class) == null) {
+                early++;
+            }
+        }
+        assertTrue(early > 450 && early < 750);
+        assertEquals(2, cache.size());
+        // without a recorded recompute time, never expires early
+        for (int i = 0; i < 1000; i++) {
+            assertNotNull(cache.get("cold", String.class));
+        }
+        cache.destroy();
+    }
 }
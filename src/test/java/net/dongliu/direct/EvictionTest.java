@@ -0,0 +1,270 @@
+package net.dongliu.direct;
+
+import net.dongliu.direct.utils.Size;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compare hit ratio of eviction policies with LRU, by a trace of zipf distributed reads mixed with scans.
+ *
+ * @author Dong Liu
+ */
+public class EvictionTest {
+
+    private static final int KEYS = 10_000;
+    private static final int REQUESTS = 50_000;
+    private static final int SCAN_INTERVAL = 5_000;
+    private static final int SCAN_LENGTH = 1_500;
+
+    /**
+     * policies approximating LRU may be a little worse than it
+     */
+    private static final double LRU_TOLERANCE = 0.95;
+
+    private static int[] trace;
+    private static double lru;
+    private static double[] lruMixed;
+
+    @BeforeClass
+    public static void setup() {
+        trace = trace();
+        lru = hitRatio(Eviction.LRU);
+        lruMixed = hitRatios(Eviction.LRU, true);
+    }
+
+    @Test
+    public void testTinyLfuHitRatio() {
+        assertTrue(hitRatio(Eviction.TINY_LFU) > lru);
+    }
+
+    @Test
+    public void testClock() {
+        Clock clock = new Clock(Ticker.system());
+        DirectValue value1 = new DirectValue(null);
+        DirectValue value2 = new DirectValue(null);
+        DirectValue value3 = new DirectValue(null);
+        clock.insert(value1);
+        clock.insert(value2);
+        clock.insert(value3);
+        clock.access(value1);
+        // value1 get a second chance
+        assertEquals(Arrays.asList(value2, value3, value1), clock.tails(Long.MAX_VALUE, 3));
+        clock.access(value1);
+        clock.access(value2);
+        clock.access(value3);
+        // all referenced, evicted in insertion order after one round
+        assertSame(value2, clock.evictNext(null));
+        clock.remove(value2);
+        assertSame(value3, clock.evictNext(null));
+    }
+
+    @Test
+    public void testGhostList() {
+        GhostList ghosts = new GhostList();
+        LinkedHashSet<Integer> expected = new LinkedHashSet<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            int hash = random.nextInt(500) * 0x10001;
+            int op = random.nextInt(10);
+            if (op < 6) {
+                ghosts.add(hash);
+                expected.add(hash);
+            } else if (op < 8) {
+                assertEquals(expected.remove(hash), ghosts.remove(hash));
+            } else if (!expected.isEmpty()) {
+                Iterator<Integer> iterator = expected.iterator();
+                int oldest = iterator.next();
+                iterator.remove();
+                ghosts.removeOldest();
+                assertFalse(ghosts.contains(oldest));
+            }
+            assertEquals(expected.size(), ghosts.size());
+            assertEquals(expected.contains(hash), ghosts.contains(hash));
+        }
+    }
+
+    @Test
+    public void testArcReplaceLeavesNoGhost() {
+        Arc arc = new Arc(Ticker.system());
+        DirectValue recent = value(1);
+        DirectValue frequent = value(2);
+        DirectValue replaced = value(3);
+        arc.insert(recent);
+        arc.insert(frequent);
+        arc.access(frequent);
+        arc.insert(replaced);
+        DirectValue value = value(3);
+        arc.replace(replaced, value);
+        // a ghost hit would have grown the target of recent lru, and evict from frequent lru first
+        assertEquals(Arrays.asList(recent, frequent, value), arc.tails(Long.MAX_VALUE, 3));
+    }
+
+    private static DirectValue value(int hash) {
+        DirectValue value = new DirectValue(null);
+        value.hash(hash);
+        return value;
+    }
+
+    @Test
+    public void testClockHitRatio() {
+        assertTrue(hitRatio(Eviction.CLOCK) > lru * LRU_TOLERANCE);
+    }
+
+    @Test
+    public void testSampledHitRatio() {
+        double sampledLru = hitRatio(Eviction.SAMPLED_LRU);
+        double sampledLfu = hitRatio(Eviction.SAMPLED_LFU);
+        assertTrue(sampledLru > lru * LRU_TOLERANCE);
+        assertTrue(sampledLfu > sampledLru);
+    }
+
+    @Test
+    public void testFifoLfuArcHitRatio() {
+        // fifo ignores reads, but should not fall far behind lru
+        assertTrue(hitRatio(Eviction.FIFO) > lru * 0.9);
+        assertTrue(hitRatio(Eviction.LFU) > lru);
+        assertTrue(hitRatio(Eviction.ARC) > lru);
+    }
+
+    @Test
+    public void testSlruHitRatio() {
+        assertTrue(hitRatio(Eviction.SLRU) > lru);
+    }
+
+    @Test
+    public void testSketchKeepsCountsWhenEnlarged() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 10; i++) {
+            sketch.increment(42);
+        }
+        sketch.ensureCapacity(1000);
+        assertTrue(sketch.frequency(42) >= 10);
+        sketch.ensureCapacity(1 << 20);
+        assertTrue(sketch.frequency(42) >= 10);
+    }
+
+    @Test
+    public void testGreedyDualSizeKeepsFrequencyWhenGrown() {
+        GreedyDualSize gds = new GreedyDualSize(true);
+        DirectValue hot = new DirectValue(null);
+        hot.hash(1);
+        gds.insert(hot);
+        for (int i = 0; i < 10; i++) {
+            gds.access(hot);
+        }
+        DirectValue last = null;
+        for (int i = 0; i < 1000; i++) {
+            last = new DirectValue(null);
+            last.hash(1000 + i * 7919);
+            gds.insert(last);
+        }
+        // the priority is computed by the counts before the sketch grew
+        gds.access(hot);
+        assertTrue(hot.getRank() > last.getRank());
+    }
+
+    @Test
+    public void testValueHeap() {
+        ValueHeap heap = new ValueHeap();
+        Random random = new Random(1);
+        List<DirectValue> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            DirectValue value = new DirectValue(null);
+            value.setRank(random.nextInt(1000));
+            heap.add(value);
+            values.add(value);
+        }
+        for (int i = 0; i < 50; i++) {
+            heap.remove(values.remove(random.nextInt(values.size())));
+        }
+        values.get(0).setRank(-1);
+        heap.update(values.get(0));
+        Collections.sort(values, Policy.COLDEST_FIRST);
+
+        assertEquals(values.subList(0, 10), heap.lowest(Long.MAX_VALUE, 10));
+        DirectValue value = null;
+        for (int i = 0; i < 50; i++) {
+            value = heap.next(value);
+            assertEquals(values.get(i).getRank(), value.getRank());
+        }
+        assertNull(heap.next(value));
+    }
+
+    @Test
+    public void testGreedyDualSizeHitRatio() {
+        double[] gds = hitRatios(Eviction.GREEDY_DUAL_SIZE, true);
+        double[] gdsByte = hitRatios(Eviction.GREEDY_DUAL_SIZE_BYTE_HIT, true);
+        assertTrue(gds[0] > lruMixed[0]);
+        assertTrue(gdsByte[1] > gds[1]);
+    }
+
+    static double hitRatio(Eviction eviction) {
+        return hitRatios(eviction, false)[0];
+    }
+
+    /**
+     * read through the trace, set the value if missed
+     *
+     * @param mixedSize if one of ten keys has a large value
+     * @return object hit ratio and byte hit ratio
+     */
+    static double[] hitRatios(Eviction eviction, boolean mixedSize) {
+        DirectCache cache = DirectCache.newBuilder().maxMemorySize(Size.Kb(256)).concurrency(16)
+                .eviction(eviction).build();
+        byte[] small = new byte[100];
+        byte[] large = new byte[8000];
+        int hits = 0;
+        long bytes = 0;
+        long hitBytes = 0;
+        for (int key : trace) {
+            byte[] value = mixedSize && key % 10 == 0 ? large : small;
+            bytes += value.length;
+            if (cache.get(key, byte[].class) != null) {
+                hits++;
+                hitBytes += value.length;
+            } else {
+                cache.set(key, value);
+            }
+        }
+        cache.destroy();
+        return new double[]{(double) hits / trace.length, (double) hitBytes / bytes};
+    }
+
+    /**
+     * zipf reads of hot keys, a scan of never read keys every SCAN_INTERVAL requests
+     */
+    static int[] trace() {
+        Random random = new Random(1234);
+        double[] cdf = new double[KEYS];
+        double sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            sum += 1 / Math.pow(i + 1, 0.9);
+            cdf[i] = sum;
+        }
+        int[] trace = new int[REQUESTS];
+        int scanKey = KEYS;
+        for (int i = 0; i < REQUESTS; i++) {
+            if (i % SCAN_INTERVAL < SCAN_LENGTH && i >= SCAN_INTERVAL) {
+                trace[i] = scanKey++;
+                continue;
+            }
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            trace[i] = index < 0 ? -index - 1 : index;
+        }
+        return trace;
+    }
+}
@@ -1,5 +1,7 @@
 package net.dongliu.direct;
 
+import net.dongliu.direct.allocator.Allocator;
+import net.dongliu.direct.utils.Size;
 import org.junit.Test;
 
 import java.util.List;
@@ -14,11 +16,11 @@ public class LruTest {
     @Test
     public void testInsert() throws Exception {
         Lru lru = mockLru(0);
-        DirectValue node = new DirectValue(null, null);
+        DirectValue node = new DirectValue(null);
         lru.insert(node);
         assertTrue(node == lru.getHead());
         assertTrue(node == lru.getTail());
-        DirectValue node2 = new DirectValue(null, null);
+        DirectValue node2 = new DirectValue(null);
         lru.insert(node2);
         assertTrue(node2 == lru.getHead());
         assertTrue(node == lru.getTail());
@@ -29,7 +31,7 @@ public class LruTest {
     @Test
     public void testRemove() throws Exception {
         Lru lru = mockLru(2);
-        DirectValue node = new DirectValue(null, null);
+        DirectValue node = new DirectValue(null);
         lru.insert(node);
         lru.remove(node);
         assertTrue(node != lru.getHead());
@@ -40,19 +42,37 @@ public class LruTest {
     @Test
     public void testPromoted() throws Exception {
         Lru lru = mockLru(2);
-        DirectValue node = new DirectValue(null, null);
-        DirectValue node2 = new DirectValue(null, null);
+        DirectValue node = new DirectValue(null);
+        DirectValue node2 = new DirectValue(null);
         lru.insert(node);
         lru.insert(node2);
-        lru.promoted(node);
+        lru.access(node);
         assertTrue(node != lru.getHead());
         Thread.sleep(1_000);
-        lru.promoted(node);
+        lru.access(node);
         assertTrue(node == lru.getHead());
 
         assertEquals(4, lru.tails(10).size());
     }
 
+    @Test
+    public void testBufferedReads() throws Exception {
+        Lru lru = new Lru();
+        DirectValue first = new DirectValue(null);
+        lru.insert(first);
+        for (int i = 0; i < 10; i++) {
+            lru.insert(new DirectValue(null));
+        }
+        lru.access(first);
+        // recorded reads are applied before the list is read
+        assertTrue(first == lru.getHead());
+        // a read of a removed value is dropped
+        lru.remove(first);
+        lru.access(first);
+        assertTrue(first != lru.getHead());
+        assertEquals(10, lru.tails(100).size());
+    }
+
     @Test
     public void testPopTail() throws Exception {
         Lru lru = mockLru(5);
@@ -60,10 +80,26 @@ public class LruTest {
         assertEquals(5, nodes.size());
     }
 
+    @Test
+    public void testTailsBounded() throws Exception {
+        Lru lru = mockLru(100);
+        assertEquals(10, lru.tails(10).size());
+
+        Allocator allocator = new Allocator(Size.Mb(1));
+        lru = new Lru(promoteDelta);
+        for (int i = 0; i < 100; i++) {
+            DirectValue value = new DirectValue(null);
+            allocator.allocate(value, 1024);
+            lru.insert(value);
+        }
+        assertEquals(3, lru.tails(2049, 10).size());
+        assertEquals(10, lru.tails(Long.MAX_VALUE, 10).size());
+    }
+
     private Lru mockLru(int size) {
         Lru lru = new Lru(promoteDelta);
         for (int i = 0; i < size; i++) {
-            lru.insert(new DirectValue(null, null));
+            lru.insert(new DirectValue(null));
         }
         return lru;
     }
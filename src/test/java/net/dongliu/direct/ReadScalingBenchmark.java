@@ -0,0 +1,105 @@
+package net.dongliu.direct;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hit throughput of map reads from 1 to 64 threads, lock-free reads against reads under the segment read lock, as
+ * they were before reads became lock-free. One op of a hundred is a put. Run by {@code mvn test -Pbenchmark}.
+ *
+ * @author Dong Liu
+ */
+public class ReadScalingBenchmark {
+
+    private static final int KEYS = 1 << 14;
+    private static final int MAX_THREADS = 64;
+    private static final long DURATION_MS = 1000;
+
+    private static volatile boolean stopped;
+
+    @Test
+    public void testReadScaling() throws Exception {
+        ConcurrentMap map = new ConcurrentMap(KEYS, 0.75f, 16);
+        String[] keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key" + i;
+            map.put(keys[i], new DirectValue(keys[i]));
+        }
+        // warm up both paths
+        run(map, keys, 4, false);
+        run(map, keys, 4, true);
+
+        System.out.printf("%8s %16s %16s %8s%n", "threads", "lock-free ops/s", "locked ops/s", "ratio");
+        for (int threads = 1; threads <= MAX_THREADS; threads <<= 1) {
+            double lockFree = run(map, keys, threads, false);
+            double locked = run(map, keys, threads, true);
+            System.out.printf("%8d %16.0f %16.0f %8.2f%n", threads, lockFree, locked, lockFree / locked);
+        }
+    }
+
+    /**
+     * @return ops per second of all threads
+     */
+    private static double run(final ConcurrentMap map, final String[] keys, int threads, final boolean locked)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] ops = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread("reader-" + t) {
+                @Override
+                public void run() {
+                    int seed = id * 0x9E3779B9 + 1;
+                    long count = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (!stopped) {
+                        for (int i = 0; i < 100; i++) {
+                            // xorshift, a shared Random would be the bottleneck
+                            seed ^= seed << 13;
+                            seed ^= seed >>> 17;
+                            seed ^= seed << 5;
+                            String key = keys[seed & (KEYS - 1)];
+                            if (i == 0) {
+                                map.put(key, new DirectValue(key));
+                            } else if (locked) {
+                                ReentrantReadWriteLock lock = map.lockFor(key);
+                                lock.readLock().lock();
+                                try {
+                                    map.get(key);
+                                } finally {
+                                    lock.readLock().unlock();
+                                }
+                            } else {
+                                map.get(key);
+                            }
+                        }
+                        count += 100;
+                    }
+                    ops[id] = count;
+                }
+            };
+            workers[t].start();
+        }
+        stopped = false;
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(DURATION_MS);
+        stopped = true;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        long total = 0;
+        for (long count : ops) {
+            total += count;
+        }
+        return total / seconds;
+    }
+}
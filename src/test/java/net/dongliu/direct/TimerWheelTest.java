@@ -0,0 +1,73 @@
+package net.dongliu.direct;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    @Test
+    public void testAdvance() {
+        long start = 1_000_000;
+        TimerWheel wheel = new TimerWheel(start);
+        TimedValue second = value(start + 1_500);
+        TimedValue minute = value(start + 90_000);
+        TimedValue hour = value(start + 7_200_000);
+        TimedValue week = value(start + 8 * 86_400_000L);
+        for (TimedValue value : Arrays.asList(second, minute, hour, week)) {
+            wheel.schedule(value);
+        }
+
+        assertTrue(wheel.advance(start + 1_000).isEmpty());
+        assertEquals(Arrays.asList(second), wheel.advance(start + 3_000));
+        assertTrue(wheel.advance(start + 60_000).isEmpty());
+        assertEquals(Arrays.asList(minute), wheel.advance(start + 100_000));
+        assertEquals(Arrays.asList(hour), wheel.advance(start + 7_300_000));
+        // cascades through coarse levels
+        for (long t = start + 7_300_000; t < start + 8 * 86_400_000L; t += 3_600_000) {
+            assertTrue(wheel.advance(t).isEmpty());
+        }
+        assertEquals(Arrays.asList(week), wheel.advance(start + 8 * 86_400_000L + 2_000));
+    }
+
+    @Test
+    public void testRemove() {
+        long start = 0;
+        TimerWheel wheel = new TimerWheel(start);
+        TimedValue[] values = new TimedValue[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = value(start + 500 + i * 100);
+            wheel.schedule(values[i]);
+        }
+        for (int i = 0; i < values.length; i += 2) {
+            wheel.remove(values[i]);
+        }
+        // removed twice, do nothing
+        wheel.remove(values[0]);
+        List<DirectValue> expired = wheel.advance(start + 20_000);
+        assertEquals(50, expired.size());
+        HashSet<DirectValue> set = new HashSet<>(expired);
+        for (int i = 1; i < values.length; i += 2) {
+            assertTrue(set.contains(values[i]));
+        }
+    }
+
+    @Test
+    public void testScheduleExpired() {
+        TimerWheel wheel = new TimerWheel(10_000);
+        TimedValue value = value(5_000);
+        wheel.schedule(value);
+        assertEquals(Arrays.asList(value), wheel.advance(11_100));
+    }
+
+    private static TimedValue value(long expireAt) {
+        TimedValue value = new TimedValue(null);
+        value.expireAt(expireAt);
+        return value;
+    }
+}
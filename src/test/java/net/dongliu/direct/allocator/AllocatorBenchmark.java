@@ -0,0 +1,33 @@
+package net.dongliu.direct.allocator;
+
+import net.dongliu.direct.utils.Size;
+import org.junit.Test;
+
+/**
+ * Arena lock acquisitions when buffers are allocated by writer threads and freed by others, from 1 to 8 writers.
+ * Run by {@code mvn test -Pbenchmark}.
+ *
+ * @author Dong Liu
+ */
+public class AllocatorBenchmark {
+
+    private static final int MAX_WRITERS = 8;
+    private static final int ALLOCATIONS = 2_000_000;
+
+    @Test
+    public void testCrossThreadFreeLocks() throws Exception {
+        // warm up
+        AllocatorTest.crossThreadFree(new Allocator(2, Size.Kb(8), 11, Size.Mb(256)), 4, 2, ALLOCATIONS / 4);
+
+        System.out.printf("%8s %8s %14s %12s %14s %14s%n", "writers", "freers", "allocations/s", "arena locks",
+                "locks/s", "locks/alloc");
+        for (int writers = 1; writers <= MAX_WRITERS; writers <<= 1) {
+            int freers = Math.max(1, writers / 2);
+            Allocator allocator = new Allocator(2, Size.Kb(8), 11, Size.Mb(256));
+            double seconds = AllocatorTest.crossThreadFree(allocator, writers, freers, ALLOCATIONS);
+            long locks = allocator.arenaLocks();
+            System.out.printf("%8d %8d %14.0f %12d %14.0f %14.3f%n", writers, freers, ALLOCATIONS / seconds, locks,
+                    locks / seconds, (double) locks / ALLOCATIONS);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package net.dongliu.direct.allocator;
+
+import net.dongliu.direct.utils.Size;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Buffers allocated by writer threads and freed by others, as cache entries are.
+ *
+ * @author Dong Liu
+ */
+public class AllocatorTest {
+
+    private static final int WRITERS = 4;
+    private static final int FREERS = 2;
+    private static final int ALLOCATIONS = 500_000;
+
+    @Test
+    public void testCrossThreadFree() throws Exception {
+        Allocator allocator = new Allocator(2, Size.Kb(8), 11, Size.Mb(256));
+        crossThreadFree(allocator, WRITERS, FREERS, ALLOCATIONS);
+        assertEquals(0, allocator.getUsed().get());
+        // one lock to allocate and one to free each buffer, if freed regions are not given back to thread caches
+        assertTrue((double) allocator.arenaLocks() / ALLOCATIONS < 1.5);
+    }
+
+    /**
+     * allocate by writers and free by freers, until all allocations are freed
+     *
+     * @return the seconds elapsed
+     */
+    static double crossThreadFree(final Allocator allocator, final int writers, int freers, final int allocations)
+            throws InterruptedException {
+        final BlockingQueue<ByteBuf> queue = new ArrayBlockingQueue<>(1024);
+        final CountDownLatch writersDone = new CountDownLatch(writers);
+        Thread[] threads = new Thread[writers + freers];
+        for (int i = 0; i < writers; i++) {
+            final int size = 256 << (i % 3);
+            threads[i] = new Thread("writer-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < allocations / writers; j++) {
+                            queue.put(allocator.allocate(size));
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            };
+        }
+        for (int i = writers; i < threads.length; i++) {
+            threads[i] = new Thread("freer-" + i) {
+                @Override
+                public void run() {
+                    while (true) {
+                        ByteBuf buf = queue.poll();
+                        if (buf != null) {
+                            buf.release();
+                        } else if (writersDone.getCount() == 0 && queue.isEmpty()) {
+                            return;
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+}